@@ -0,0 +1,85 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Query throughput of BucketKdTree for a range of leaf bucket sizes, which is what BucketKdTree.DEFAULT_BUCKET_SIZE
+// was picked from. The queries are the uniform ones QueryBenchmark uses.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BucketBenchmark {
+
+    // side length of the range rectangles, as a fraction of the unit square
+    private static final double SIDE = 0.05;
+
+    @Param({ "input100K.txt", "input200K.txt" })
+    public String file;
+
+    @Param({ "1", "4", "8", "16", "32", "64" })
+    public int bucketSize;
+
+    private BucketKdTree tree;
+    private Point2D[] points;
+    private RectHV[] rects;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        Dataset dataset = Dataset.load(file);
+        Point2D[] data = dataset.points();
+        double[] xs = new double[data.length];
+        double[] ys = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            xs[i] = data[i].x();
+            ys[i] = data[i].y();
+        }
+        tree = new BucketKdTree(xs, ys, bucketSize);
+
+        points = dataset.queries("uniform");
+        rects = new RectHV[points.length];
+        for (int i = 0; i < points.length; i++) {
+            double x = points[i].x(), y = points[i].y();
+            rects[i] = new RectHV(Math.max(0, x - SIDE / 2), Math.max(0, y - SIDE / 2),
+                    Math.min(1, x + SIDE / 2), Math.min(1, y + SIDE / 2));
+        }
+    }
+
+    private int next() {
+        return next++ & (Dataset.QUERIES - 1);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return tree.contains(points[next()]);
+    }
+
+    @Benchmark
+    public Point2D nearest() {
+        return tree.nearest(points[next()]);
+    }
+
+    @Benchmark
+    public int range() {
+        int count = 0;
+        for (Point2D ignored : tree.range(rects[next()])) count++;
+        return count;
+    }
+}
@@ -0,0 +1,68 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// the points of one of the testing-data files, plus query points drawn from a fixed seed
+final class Dataset {
+
+    // number of pregenerated queries; a power of two so benchmarks can cycle through them with a mask
+    static final int QUERIES = 1 << 12;
+
+    private final Point2D[] points;
+
+    private Dataset(Point2D[] points) {
+        this.points = points;
+    }
+
+    // the points in the named file from the kdtrees.data directory (../testing-data by default)
+    static Dataset load(String file) {
+        String directory = System.getProperty("kdtrees.data", "../testing-data");
+        try {
+            PointFile pointFile = PointFile.read(Paths.get(directory, file).toString());
+            Point2D[] points = new Point2D[pointFile.size()];
+            for (int i = 0; i < points.length; i++) points[i] = new Point2D(pointFile.xs()[i], pointFile.ys()[i]);
+            return new Dataset(points);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Point2D[] points() {
+        return points;
+    }
+
+    // Query points, either uniform over the unit square or clustered: gaussian around a handful of the dataset's own
+    // points, which is what queries look like when they follow the data.
+    Point2D[] queries(String distribution) {
+        Random random = new Random(42);
+        Point2D[] queries = new Point2D[QUERIES];
+
+        switch (distribution) {
+            case "uniform":
+                for (int i = 0; i < QUERIES; i++) queries[i] = new Point2D(random.nextDouble(), random.nextDouble());
+                break;
+            case "clustered":
+                Point2D[] centers = new Point2D[8];
+                for (int i = 0; i < centers.length; i++) centers[i] = points[random.nextInt(points.length)];
+                for (int i = 0; i < QUERIES; i++) {
+                    Point2D center = centers[random.nextInt(centers.length)];
+                    double x = clamp(center.x() + 0.02 * random.nextGaussian());
+                    double y = clamp(center.y() + 0.02 * random.nextGaussian());
+                    queries[i] = new Point2D(x, y);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown query distribution: " + distribution);
+        }
+        return queries;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
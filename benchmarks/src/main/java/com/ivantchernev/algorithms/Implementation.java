@@ -0,0 +1,57 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+// the point set implementations under benchmark, behind one interface so every benchmark can run on either
+public enum Implementation {
+
+    KdTree {
+        @Override
+        Set create() {
+            com.ivantchernev.algorithms.KdTree set = new com.ivantchernev.algorithms.KdTree();
+            return new Set() {
+                public void insert(Point2D p) { set.insert(p); }
+                public boolean contains(Point2D p) { return set.contains(p); }
+                public Iterable<Point2D> range(RectHV rect) { return set.range(rect); }
+                public Point2D nearest(Point2D p) { return set.nearest(p); }
+            };
+        }
+    },
+
+    BufferedKdTree {
+        @Override
+        Set create() {
+            com.ivantchernev.algorithms.BufferedKdTree set = new com.ivantchernev.algorithms.BufferedKdTree();
+            return new Set() {
+                public void insert(Point2D p) { set.insert(p); }
+                public boolean contains(Point2D p) { return set.contains(p); }
+                public Iterable<Point2D> range(RectHV rect) { return set.range(rect); }
+                public Point2D nearest(Point2D p) { return set.nearest(p); }
+            };
+        }
+    },
+
+    PointSET {
+        @Override
+        Set create() {
+            com.ivantchernev.algorithms.PointSET set = new com.ivantchernev.algorithms.PointSET();
+            return new Set() {
+                public void insert(Point2D p) { set.insert(p); }
+                public boolean contains(Point2D p) { return set.contains(p); }
+                public Iterable<Point2D> range(RectHV rect) { return set.range(rect); }
+                public Point2D nearest(Point2D p) { return set.nearest(p); }
+            };
+        }
+    };
+
+    interface Set {
+        void insert(Point2D p);
+        boolean contains(Point2D p);
+        Iterable<Point2D> range(RectHV rect);
+        Point2D nearest(Point2D p);
+    }
+
+    // an empty set of this implementation
+    abstract Set create();
+}
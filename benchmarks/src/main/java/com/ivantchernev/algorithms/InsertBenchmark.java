@@ -0,0 +1,50 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// time to build a set by inserting every point of a file one at a time, in file order
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    @Param({
+            "input10K.txt", "input20K.txt", "input40K.txt", "input80K.txt", "input100K.txt", "input200K.txt",
+            "circle10.txt", "circle100.txt", "circle1000.txt", "circle10000.txt"
+    })
+    public String file;
+
+    @Param({ "KdTree", "BufferedKdTree", "PointSET" })
+    public Implementation implementation;
+
+    private Point2D[] points;
+
+    @Setup(Level.Trial)
+    public void load() {
+        points = Dataset.load(file).points();
+    }
+
+    @Benchmark
+    public Implementation.Set insert() {
+        Implementation.Set set = implementation.create();
+        for (Point2D p : points) set.insert(p);
+        return set;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Query throughput of the same balanced tree in three memory layouts: KdTree's Node objects, and FlatKdTree's
+// primitive arrays in in-order and van Emde Boas order. The sets hold n uniform random points, large enough that
+// the tree does not fit in cache, and the queries are uniform too so consecutive queries share only the top levels.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class LayoutBenchmark {
+
+    public enum Layout { NODES, IN_ORDER, VAN_EMDE_BOAS }
+
+    @Param({ "1000000", "10000000" })
+    public int n;
+
+    @Param({ "NODES", "IN_ORDER", "VAN_EMDE_BOAS" })
+    public Layout layout;
+
+    private KdTree nodes;
+    private FlatKdTree flat;
+    private Point2D[] present;
+    private Point2D[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        Random random = new Random(42);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+
+        if (layout == Layout.NODES) nodes = new KdTree(xs, ys);
+        else flat = new FlatKdTree(xs, ys, FlatKdTree.Layout.valueOf(layout.name()));
+
+        present = new Point2D[Dataset.QUERIES];
+        queries = new Point2D[Dataset.QUERIES];
+        for (int i = 0; i < Dataset.QUERIES; i++) {
+            int j = random.nextInt(n);
+            present[i] = new Point2D(xs[j], ys[j]);
+            queries[i] = new Point2D(random.nextDouble(), random.nextDouble());
+        }
+    }
+
+    private int next() {
+        return next++ & (Dataset.QUERIES - 1);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        Point2D p = present[next()];
+        return nodes != null ? nodes.contains(p) : flat.contains(p);
+    }
+
+    @Benchmark
+    public Point2D nearest() {
+        Point2D p = queries[next()];
+        return nodes != null ? nodes.nearest(p) : flat.nearest(p);
+    }
+}
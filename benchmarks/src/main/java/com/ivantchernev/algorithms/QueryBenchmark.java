@@ -0,0 +1,124 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Throughput of single queries against a set holding every point of a file. Each invocation answers the next of
+// Dataset.QUERIES pregenerated queries, so a measurement cycles through a fixed, repeatable query mix.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+    // side lengths of the small, medium and large range rectangles, as fractions of the unit square
+    private static final double SMALL = 0.01;
+    private static final double MEDIUM = 0.05;
+    private static final double LARGE = 0.25;
+
+    @Param({
+            "input10K.txt", "input20K.txt", "input40K.txt", "input80K.txt", "input100K.txt", "input200K.txt",
+            "circle10.txt", "circle100.txt", "circle1000.txt", "circle10000.txt"
+    })
+    public String file;
+
+    @Param({ "KdTree", "BufferedKdTree", "PointSET" })
+    public Implementation implementation;
+
+    @Param({ "uniform", "clustered" })
+    public String queries;
+
+    private Implementation.Set set;
+    private Point2D[] points;
+    private Point2D[] lookups;
+    private RectHV[] small;
+    private RectHV[] medium;
+    private RectHV[] large;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        Dataset dataset = Dataset.load(file);
+        set = implementation.create();
+        for (Point2D p : dataset.points()) set.insert(p);
+
+        points = dataset.queries(queries);
+        lookups = lookups(dataset.points(), points);
+        small = rects(points, SMALL);
+        medium = rects(points, MEDIUM);
+        large = rects(points, LARGE);
+    }
+
+    // contains lookups that alternate between points of the set, which hit, and query points, which almost never do
+    private static Point2D[] lookups(Point2D[] present, Point2D[] queries) {
+        Random random = new Random(42);
+        Point2D[] lookups = new Point2D[queries.length];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = i % 2 == 0 ? present[random.nextInt(present.length)] : queries[i];
+        }
+        return lookups;
+    }
+
+    // squares of the given side centred on the query points, clipped to the unit square
+    private static RectHV[] rects(Point2D[] centers, double side) {
+        RectHV[] rects = new RectHV[centers.length];
+        for (int i = 0; i < centers.length; i++) {
+            double x = centers[i].x(), y = centers[i].y();
+            rects[i] = new RectHV(Math.max(0, x - side / 2), Math.max(0, y - side / 2),
+                    Math.min(1, x + side / 2), Math.min(1, y + side / 2));
+        }
+        return rects;
+    }
+
+    private int next() {
+        return next++ & (Dataset.QUERIES - 1);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(lookups[next()]);
+    }
+
+    @Benchmark
+    public Point2D nearest() {
+        return set.nearest(points[next()]);
+    }
+
+    @Benchmark
+    public int rangeSmall() {
+        return count(set.range(small[next()]));
+    }
+
+    @Benchmark
+    public int rangeMedium() {
+        return count(set.range(medium[next()]));
+    }
+
+    @Benchmark
+    public int rangeLarge() {
+        return count(set.range(large[next()]));
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
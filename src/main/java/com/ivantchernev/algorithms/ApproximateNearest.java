@@ -0,0 +1,54 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+// The answer to an approximate nearest neighbor query, together with the guarantee the search achieved: no point
+// in the set is closer to the query than distance() / errorBound(). An errorBound() of 1 means point() is a nearest
+// neighbor; POSITIVE_INFINITY means the search stopped before it could rule anything out.
+public final class ApproximateNearest {
+
+    private final Point2D point;
+    private final double distance;
+    private final double errorBound;
+    private final int nodesVisited;
+
+    // closestDistance and lowerBound are squared distances: to point, and a bound no point in the set is closer than
+    ApproximateNearest(Point2D point, double closestDistance, double lowerBound, int nodesVisited) {
+        this.point = point;
+        this.distance = Math.sqrt(closestDistance);
+        if (closestDistance <= lowerBound) this.errorBound = 1.0;
+        else if (lowerBound <= 0.0)        this.errorBound = Double.POSITIVE_INFINITY;
+        else                               this.errorBound = Math.sqrt(closestDistance / lowerBound);
+        this.nodesVisited = nodesVisited;
+    }
+
+    // the closest point found; null if the set is empty or the search found no point
+    public Point2D point() {
+        return point;
+    }
+
+    // distance from the query to point(); POSITIVE_INFINITY if there is no point
+    public double distance() {
+        return distance;
+    }
+
+    // ratio by which distance() may exceed the distance to a true nearest neighbor, at least 1
+    public double errorBound() {
+        return errorBound;
+    }
+
+    // is point() known to be a nearest neighbor?
+    public boolean isExact() {
+        return errorBound == 1.0;
+    }
+
+    // number of nodes the search looked at
+    public int nodesVisited() {
+        return nodesVisited;
+    }
+
+    @Override
+    public String toString() {
+        return point + " at distance " + distance + " (within a factor " + errorBound + ", " + nodesVisited + " nodes)";
+    }
+}
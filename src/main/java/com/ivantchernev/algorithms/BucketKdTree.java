@@ -0,0 +1,290 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+import java.util.Arrays;
+
+// An immutable 2d-tree whose leaves are buckets of up to bucketSize points. The points are reordered so that every
+// bucket is a contiguous run of the primitive arrays xs and ys, and queries finish with a linear scan of a bucket
+// instead of chasing one small node per point. Internal nodes only hold a split value: points with a smaller
+// coordinate on the split axis are in the left subtree, the rest in the right one. Each node splits the wider side
+// of its bounding box, and nodes are numbered in preorder, so the left child of an internal node i is i + 1.
+public class BucketKdTree {
+
+    public static final int DEFAULT_BUCKET_SIZE = 16;
+
+    private static final int NONE = -1;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int bucketSize;
+    private final int size;
+
+    // per node
+    private double[] bounds;    // bounding box of the node's points as xmin, ymin, xmax, ymax
+    private double[] split;     // internal nodes: the split value
+    private boolean[] isXSplit; // internal nodes: is the split on x?
+    private int[] right;        // internal nodes: index of the right child; NONE for leaves
+    private int[] first;        // leaves: index of the bucket's first point in xs and ys
+    private int[] count;        // leaves: number of points in the bucket
+    private int nodes;
+
+    // construct a set of the given points with buckets of DEFAULT_BUCKET_SIZE (duplicates are only added once)
+    public BucketKdTree(Point2D[] points) {
+        this(coordinates(points, true), coordinates(points, false), DEFAULT_BUCKET_SIZE);
+    }
+
+    // construct a set of the points (xs[i], ys[i]) with buckets of DEFAULT_BUCKET_SIZE
+    public BucketKdTree(double[] xs, double[] ys) {
+        this(xs, ys, DEFAULT_BUCKET_SIZE);
+    }
+
+    // construct a set of the points (xs[i], ys[i]) with buckets of at most bucketSize points
+    public BucketKdTree(double[] xs, double[] ys, int bucketSize) {
+        if (xs == null || ys == null || xs.length != ys.length || bucketSize < 1) throw new IllegalArgumentException();
+
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+        MedianPartition.checkCoordinates(this.xs, this.ys);
+        this.bucketSize = bucketSize;
+
+        int capacity = 2 * (xs.length / bucketSize + 1);
+        bounds = new double[4 * capacity];
+        split = new double[capacity];
+        isXSplit = new boolean[capacity];
+        right = new int[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+
+        if (xs.length > 0) build(0, xs.length);
+        int size = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (right[node] == NONE) size += count[node];
+        }
+        this.size = size;
+    }
+
+    private static double[] coordinates(Point2D[] points, boolean isX) {
+        if (points == null) throw new IllegalArgumentException();
+
+        double[] coordinates = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new IllegalArgumentException();
+            coordinates[i] = isX ? points[i].x() : points[i].y();
+        }
+        return coordinates;
+    }
+
+    // build the subtree of the points xs[lo..hi), ys[lo..hi) and return its root
+    private int build(int lo, int hi) {
+        int node = newNode();
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            xmin = Math.min(xmin, xs[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+        bounds[4 * node]     = xmin;
+        bounds[4 * node + 1] = ymin;
+        bounds[4 * node + 2] = xmax;
+        bounds[4 * node + 3] = ymax;
+
+        if (hi - lo > bucketSize) {
+            boolean isX = xmax - xmin >= ymax - ymin;
+            int mid = partition(lo, hi, isX);
+            if (mid == NONE) mid = partition(lo, hi, isX = !isX);
+
+            // a range that cannot be split on either axis holds copies of a single point and becomes a leaf
+            if (mid != NONE) {
+                double[] keys = isX ? xs : ys;
+                double splitValue = Double.POSITIVE_INFINITY;
+                for (int i = mid; i < hi; i++) splitValue = Math.min(splitValue, keys[i]);
+
+                split[node] = splitValue;
+                isXSplit[node] = isX;
+                build(lo, mid);
+                int rightChild = build(mid, hi);   // the arrays may be reallocated while the right subtree is built
+                right[node] = rightChild;
+                return node;
+            }
+        }
+
+        right[node] = NONE;
+        first[node] = lo;
+        count[node] = removeCopies(lo, hi);
+        return node;
+    }
+
+    // Rearrange xs[lo..hi), ys[lo..hi) around the median on the given axis and return the start of the right part:
+    // every key before it is smaller than every key from it on. NONE if all keys are equal.
+    private int partition(int lo, int hi, boolean isX) {
+        int mid = MedianPartition.split(xs, ys, lo, hi - 1, isX);
+        if (mid > lo) return mid;
+
+        // the median is also the smallest key, so its copies go left instead
+        double[] keys = isX ? xs : ys;
+        double key = keys[lo];
+        for (int i = lo; i < hi; i++) {
+            if (keys[i] == key) swap(mid++, i);
+        }
+        return mid < hi ? mid : NONE;
+    }
+
+    // move the distinct points of xs[lo..hi) to its front and return how many there are
+    private int removeCopies(int lo, int hi) {
+        int end = lo;
+        for (int i = lo; i < hi; i++) {
+            boolean isCopy = false;
+            for (int j = lo; j < end && !isCopy; j++) isCopy = xs[i] == xs[j] && ys[i] == ys[j];
+            if (!isCopy) swap(end++, i);
+        }
+        return end - lo;
+    }
+
+    private void swap(int i, int j) {
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+
+    private int newNode() {
+        if (nodes == right.length) {
+            int capacity = 2 * nodes;
+            bounds = Arrays.copyOf(bounds, 4 * capacity);
+            split = Arrays.copyOf(split, capacity);
+            isXSplit = Arrays.copyOf(isXSplit, capacity);
+            right = Arrays.copyOf(right, capacity);
+            first = Arrays.copyOf(first, capacity);
+            count = Arrays.copyOf(count, capacity);
+        }
+        return nodes++;
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return size;
+    }
+
+    // maximum number of points in a leaf
+    public int bucketSize() {
+        return bucketSize;
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+        if (size == 0) return false;
+
+        double x = p.x(), y = p.y();
+        int node = 0;
+        while (right[node] != NONE) {
+            boolean searchLeft = isXSplit[node] ? x < split[node] : y < split[node];
+            node = searchLeft ? node + 1 : right[node];
+        }
+
+        for (int i = first[node], end = first[node] + count[node]; i < end; i++) {
+            if (xs[i] == x && ys[i] == y) return true;
+        }
+        return false;
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        Stack<Point2D> intersectionPoints = new Stack<>();
+        if (size > 0) range(0, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), intersectionPoints);
+        return intersectionPoints;
+    }
+
+    private void range(int node, double xmin, double ymin, double xmax, double ymax,
+                       Stack<Point2D> intersectionPoints) {
+        double bxmin = bounds[4 * node], bymin = bounds[4 * node + 1];
+        double bxmax = bounds[4 * node + 2], bymax = bounds[4 * node + 3];
+        if (bxmax < xmin || bxmin > xmax || bymax < ymin || bymin > ymax) return;
+
+        if (right[node] != NONE) {
+            range(node + 1, xmin, ymin, xmax, ymax, intersectionPoints);
+            range(right[node], xmin, ymin, xmax, ymax, intersectionPoints);
+            return;
+        }
+
+        // a bucket lying wholly inside the rectangle is reported without testing its points
+        boolean isInside = bxmin >= xmin && bxmax <= xmax && bymin >= ymin && bymax <= ymax;
+        for (int i = first[node], end = first[node] + count[node]; i < end; i++) {
+            double x = xs[i], y = ys[i];
+            if (isInside || (x >= xmin && x <= xmax && y >= ymin && y <= ymax)) intersectionPoints.push(new Point2D(x, y));
+        }
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+        if (size == 0) return null;
+
+        int closest = nearest(0, p.x(), p.y(), NONE);
+        return new Point2D(xs[closest], ys[closest]);
+    }
+
+    // the index in xs and ys of the closest point found in the subtree or before it
+    private int nearest(int node, double qx, double qy, int closest) {
+        double closestDistance = closest == NONE ? Double.POSITIVE_INFINITY : distanceSquaredTo(closest, qx, qy);
+        if (boundsDistanceSquaredTo(node, qx, qy) >= closestDistance) return closest;
+
+        if (right[node] == NONE) return nearestInBucket(node, qx, qy, closest, closestDistance);
+
+        // search the side of the split the query is on first
+        boolean isLeftNearer = isXSplit[node] ? qx < split[node] : qy < split[node];
+        if (isLeftNearer) {
+            closest = nearest(node + 1, qx, qy, closest);
+            return nearest(right[node], qx, qy, closest);
+        } else {
+            closest = nearest(right[node], qx, qy, closest);
+            return nearest(node + 1, qx, qy, closest);
+        }
+    }
+
+    // The first loop is a plain min-reduction over the bucket with no data-dependent branches, which the JIT can
+    // turn into SIMD code; only when it beats the closest distance does a second pass look for the winning index.
+    private int nearestInBucket(int node, double qx, double qy, int closest, double closestDistance) {
+        int from = first[node], to = first[node] + count[node];
+
+        double bucketDistance = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            double dx = xs[i] - qx;
+            double dy = ys[i] - qy;
+            bucketDistance = Math.min(bucketDistance, dx * dx + dy * dy);
+        }
+        if (bucketDistance >= closestDistance) return closest;
+
+        for (int i = from; i < to; i++) {
+            if (distanceSquaredTo(i, qx, qy) == bucketDistance) return i;
+        }
+        return closest;
+    }
+
+    private double distanceSquaredTo(int i, double qx, double qy) {
+        double dx = xs[i] - qx;
+        double dy = ys[i] - qy;
+        return dx * dx + dy * dy;
+    }
+
+    // squared distance from (qx, qy) to the bounding box of the node
+    private double boundsDistanceSquaredTo(int node, double qx, double qy) {
+        return Rectangles.distanceSquaredTo(bounds[4 * node], bounds[4 * node + 1], bounds[4 * node + 2],
+                bounds[4 * node + 3], qx, qy);
+    }
+}
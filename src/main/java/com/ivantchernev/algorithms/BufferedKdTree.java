@@ -0,0 +1,219 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+import java.util.Arrays;
+
+// A write-optimized set of points built with the logarithmic method. Inserts go to a small unsorted buffer; a full
+// buffer becomes a static balanced tree on level 0, and whenever a level collects GROWTH_FACTOR trees they are
+// rebuilt together into one tree on the next level, so level i only ever holds trees of bufferSize * GROWTH_FACTOR^i
+// points. Every point is rebuilt O(log n) times and an insert never walks or rebalances a large tree; queries ask
+// the buffer and each of the O(log n) trees. Membership is kept in a hash table of coordinates, which makes the
+// duplicate check on insert (and contains) O(1) instead of a search of every level.
+public class BufferedKdTree {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    // trees a level collects before they are merged into the next level: a smaller factor rebuilds every point
+    // more often (2 made ingest slower than KdTree.insert), a larger one leaves more trees for every query to ask
+    private static final int GROWTH_FACTOR = 8;
+
+    private final int bufferSize;
+    private final double[] bufferXs;
+    private final double[] bufferYs;
+    private int buffered;
+
+    private FlatKdTree[][] levels = new FlatKdTree[0][];
+    private int[] trees = new int[0];   // number of trees on each level
+
+    private final PointTable points = new PointTable();
+
+    // construct an empty set with a buffer of DEFAULT_BUFFER_SIZE points
+    public BufferedKdTree() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    // construct an empty set whose buffer holds up to bufferSize points
+    public BufferedKdTree(int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException();
+
+        this.bufferSize = bufferSize;
+        this.bufferXs = new double[bufferSize];
+        this.bufferYs = new double[bufferSize];
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return points.size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return points.size;
+    }
+
+    // number of points waiting in the buffer
+    public int buffered() {
+        return buffered;
+    }
+
+    // add the point to the set (if it is not already in the set)
+    public void insert(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+        if (!points.add(p.x(), p.y())) return;
+
+        bufferXs[buffered] = p.x();
+        bufferYs[buffered] = p.y();
+        buffered++;
+        if (buffered == bufferSize) flush();
+    }
+
+    // turn the buffer into a tree on level 0 and carry full levels upwards
+    private void flush() {
+        FlatKdTree tree = new FlatKdTree(Arrays.copyOf(bufferXs, buffered), Arrays.copyOf(bufferYs, buffered),
+                FlatKdTree.Layout.VAN_EMDE_BOAS);
+        buffered = 0;
+
+        for (int level = 0; ; level++) {
+            if (level == levels.length) {
+                levels = Arrays.copyOf(levels, level + 1);
+                levels[level] = new FlatKdTree[GROWTH_FACTOR];
+                trees = Arrays.copyOf(trees, level + 1);
+            }
+
+            levels[level][trees[level]++] = tree;
+            if (trees[level] < GROWTH_FACTOR) return;
+
+            tree = merge(levels[level]);
+            Arrays.fill(levels[level], null);
+            trees[level] = 0;
+        }
+    }
+
+    private static FlatKdTree merge(FlatKdTree[] trees) {
+        int n = 0;
+        for (FlatKdTree tree : trees) n += tree.size();
+
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int offset = 0;
+        for (FlatKdTree tree : trees) {
+            tree.copyTo(xs, ys, offset);
+            offset += tree.size();
+        }
+        return new FlatKdTree(xs, ys, FlatKdTree.Layout.VAN_EMDE_BOAS);
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        return points.contains(p.x(), p.y());
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        Stack<Point2D> intersectionPoints = new Stack<>();
+        for (int i = 0; i < buffered; i++) {
+            double x = bufferXs[i], y = bufferYs[i];
+            if (x >= rect.xmin() && x <= rect.xmax() && y >= rect.ymin() && y <= rect.ymax()) {
+                intersectionPoints.push(new Point2D(x, y));
+            }
+        }
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < trees[level]; i++) levels[level][i].range(rect, intersectionPoints);
+        }
+        return intersectionPoints;
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        double qx = p.x(), qy = p.y();
+        int closestBuffered = -1;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < buffered; i++) {
+            double dx = bufferXs[i] - qx, dy = bufferYs[i] - qy;
+            double distance = dx * dx + dy * dy;
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closestBuffered = i;
+            }
+        }
+
+        Point2D closest = closestBuffered < 0 ? null : new Point2D(bufferXs[closestBuffered], bufferYs[closestBuffered]);
+
+        // the largest trees first: they are the likeliest to hold the answer, and the bound they set prunes the rest
+        for (int level = levels.length - 1; level >= 0; level--) {
+            for (int i = 0; i < trees[level]; i++) {
+                Point2D candidate = levels[level][i].nearest(p, closestDistance);
+                if (candidate != null) {
+                    closestDistance = candidate.distanceSquaredTo(p);
+                    closest = candidate;
+                }
+            }
+        }
+        return closest;
+    }
+
+    // An open-addressing hash set of coordinate pairs with linear probing. Coordinates are never NaN, so NaN marks
+    // an empty slot.
+    private static class PointTable {
+        private double[] xs = empty(16);
+        private double[] ys = new double[16];
+        private int size;
+
+        private static double[] empty(int capacity) {
+            double[] xs = new double[capacity];
+            Arrays.fill(xs, Double.NaN);
+            return xs;
+        }
+
+        boolean contains(double x, double y) {
+            int mask = xs.length - 1;
+            for (int i = hash(x, y) & mask; !Double.isNaN(xs[i]); i = (i + 1) & mask) {
+                if (xs[i] == x && ys[i] == y) return true;
+            }
+            return false;
+        }
+
+        // add the point unless it is already in the table; was it added?
+        boolean add(double x, double y) {
+            int mask = xs.length - 1;
+            int i = hash(x, y) & mask;
+            for (; !Double.isNaN(xs[i]); i = (i + 1) & mask) {
+                if (xs[i] == x && ys[i] == y) return false;
+            }
+            xs[i] = x;
+            ys[i] = y;
+            if (++size > xs.length / 2) resize();
+            return true;
+        }
+
+        private void resize() {
+            double[] oldXs = xs, oldYs = ys;
+            xs = empty(2 * oldXs.length);
+            ys = new double[2 * oldYs.length];
+            int mask = xs.length - 1;
+            for (int j = 0; j < oldXs.length; j++) {
+                if (Double.isNaN(oldXs[j])) continue;
+
+                int i = hash(oldXs[j], oldYs[j]) & mask;
+                while (!Double.isNaN(xs[i])) i = (i + 1) & mask;
+                xs[i] = oldXs[j];
+                ys[i] = oldYs[j];
+            }
+        }
+
+        private static int hash(double x, double y) {
+            long h = Double.doubleToLongBits(x) * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(y);
+            h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// An immutable, balanced 2d-tree stored in flat primitive arrays instead of Node objects.
+// Node i is the point (xs[i], ys[i]) and lb[i]/rt[i] are the indices of its children (NONE if absent).
+// The root is x oriented and orientation alternates with depth, exactly as in KdTree.
+public class FlatKdTree extends IndexedKdTree {
+
+    // where nodes sit in the arrays
+    public enum Layout {
+        // every node at the median position of its subtree's range, as the build leaves it: subtrees are
+        // contiguous, but the levels near the root that every query walks are spread across the whole array
+        IN_ORDER,
+        // van Emde Boas order: the top half of the levels is laid out first, recursively in the same order, then
+        // each subtree hanging below it, so any root-to-leaf walk touches O(log n / log B) blocks of B nodes
+        // whatever B is, and the top levels shared by every query fit in a few cache lines
+        VAN_EMDE_BOAS
+    }
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] lb;     // index of the left/bottom child
+    private final int[] rt;     // index of the right/top child
+    private final int root;
+    private final int size;
+    private final Layout layout;
+
+    // construct a set of the given points (duplicates are only added once)
+    public FlatKdTree(Point2D[] points) {
+        if (points == null) throw new IllegalArgumentException();
+
+        double[] xs = new double[points.length];
+        double[] ys = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new IllegalArgumentException();
+            xs[i] = points[i].x();
+            ys[i] = points[i].y();
+        }
+
+        this.xs = xs;
+        this.ys = ys;
+        this.lb = new int[xs.length];
+        this.rt = new int[xs.length];
+
+        LongAdder nodes = new LongAdder();
+        this.root = build(nodes);
+        this.size = nodes.intValue();
+        this.layout = Layout.IN_ORDER;
+    }
+
+    // construct a set of the points (xs[i], ys[i]) (duplicates are only added once)
+    public FlatKdTree(double[] xs, double[] ys) {
+        this(xs, ys, Layout.IN_ORDER);
+    }
+
+    // construct a set of the points (xs[i], ys[i]) with its nodes in the given layout (duplicates are only added once)
+    public FlatKdTree(double[] xs, double[] ys, Layout layout) {
+        if (xs == null || ys == null || xs.length != ys.length || layout == null) throw new IllegalArgumentException();
+
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+        MedianPartition.checkCoordinates(this.xs, this.ys);
+        this.lb = new int[xs.length];
+        this.rt = new int[xs.length];
+
+        LongAdder nodes = new LongAdder();
+        int root = build(nodes);
+        this.size = nodes.intValue();
+        this.layout = layout;
+        this.root = layout == Layout.VAN_EMDE_BOAS && root != NONE ? relayout(vanEmdeBoasOrder(root)) : root;
+    }
+
+    // build the tree in place and return its root, counting the nodes, which is the number of distinct points
+    private int build(LongAdder nodes) {
+        Integer root = MedianPartition.build(xs, ys, 0, xs.length - 1, true, (split, isXOriented, lb, rt) -> {
+            this.lb[split] = lb == null ? NONE : lb;
+            this.rt[split] = rt == null ? NONE : rt;
+            nodes.increment();
+            return split;
+        });
+        return root == null ? NONE : root;
+    }
+
+    // Nodes in van Emde Boas order: the subtree of height h is cut below its top h / 2 levels, the top tree is
+    // ordered recursively and then each of the bottom trees, left to right, in turn.
+    private IntList vanEmdeBoasOrder(int root) {
+        IntList order = new IntList();
+        vanEmdeBoasOrder(root, height(root), order, new IntList());
+        return order;
+    }
+
+    // append the first h levels of the subtree rooted at node to order, and the roots just below them to frontier
+    private void vanEmdeBoasOrder(int node, int h, IntList order, IntList frontier) {
+        if (node == NONE) return;
+        if (h == 1) {
+            order.add(node);
+            frontier.add(lb[node]);
+            frontier.add(rt[node]);
+            return;
+        }
+
+        int top = h / 2;
+        IntList middle = new IntList();
+        vanEmdeBoasOrder(node, top, order, middle);
+        for (int i = 0; i < middle.size; i++) vanEmdeBoasOrder(middle.items[i], h - top, order, frontier);
+    }
+
+    private int height(int node) {
+        if (node == NONE) return 0;
+        return 1 + Math.max(height(lb[node]), height(rt[node]));
+    }
+
+    // move node order[i] to index i, renumbering the child links to match, and return the new root
+    private int relayout(IntList order) {
+        int[] index = new int[xs.length];
+        for (int i = 0; i < order.size; i++) index[order.items[i]] = i;
+
+        double[] oldXs = xs.clone(), oldYs = ys.clone();
+        int[] oldLb = lb.clone(), oldRt = rt.clone();
+        for (int i = 0; i < order.size; i++) {
+            int node = order.items[i];
+            xs[i] = oldXs[node];
+            ys[i] = oldYs[node];
+            lb[i] = oldLb[node] == NONE ? NONE : index[oldLb[node]];
+            rt[i] = oldRt[node] == NONE ? NONE : index[oldRt[node]];
+        }
+        return 0;
+    }
+
+    // a growable list of node indices that ignores NONE
+    private static class IntList {
+        private int[] items = new int[4];
+        private int size;
+
+        void add(int item) {
+            if (item == NONE) return;
+            if (size == items.length) items = Arrays.copyOf(items, 2 * size);
+            items[size++] = item;
+        }
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return size;
+    }
+
+    // the order the nodes are stored in
+    public Layout layout() {
+        return layout;
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        return contains(p.x(), p.y());
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        Stack<Point2D> intersectionPoints = new Stack<>();
+        range(rect, intersectionPoints);
+        return intersectionPoints;
+    }
+
+    // copy the points of the set to xs[offset..offset + size), ys[offset..offset + size)
+    void copyTo(double[] xs, double[] ys, int offset) {
+        copyTo(root, xs, ys, offset);
+    }
+
+    private int copyTo(int node, double[] xs, double[] ys, int offset) {
+        if (node == NONE) return offset;
+
+        xs[offset] = this.xs[node];
+        ys[offset] = this.ys[node];
+        offset = copyTo(lb[node], xs, ys, offset + 1);
+        return copyTo(rt[node], xs, ys, offset);
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        return nearest(p, Double.POSITIVE_INFINITY);
+    }
+
+    // a nearest neighbor to p among the points at a squared distance below bound; null if there is none. Callers
+    // searching several sets pass the best distance found so far, so that the later sets prune against it.
+    Point2D nearest(Point2D p, double bound) {
+        if (root == NONE) return null;
+
+        double inf = Double.POSITIVE_INFINITY;
+        int closest = nearest(-inf, -inf, inf, inf, NONE, bound, NONE, p.x(), p.y());
+        return closest == NONE ? null : new Point2D(xs[closest], ys[closest]);
+    }
+
+    // The index of a nearest neighbor of node i other than node i itself; NONE if it is the only point. The search
+    // starts from candidate, a node already known to be close to node i, so that it prunes from the first step.
+    int nearestOther(int i, int candidate) {
+        double inf = Double.POSITIVE_INFINITY;
+        return nearest(-inf, -inf, inf, inf, candidate, inf, i, xs[i], ys[i]);
+    }
+
+    @Override
+    int root() {
+        return root;
+    }
+
+    @Override
+    double x(int i) {
+        return xs[i];
+    }
+
+    @Override
+    double y(int i) {
+        return ys[i];
+    }
+
+    @Override
+    int lb(int i) {
+        return lb[i];
+    }
+
+    @Override
+    int rt(int i) {
+        return rt[i];
+    }
+}
@@ -0,0 +1,104 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+// The searches of a read-only 2d-tree whose nodes are numbered and linked by index, shared by FlatKdTree, which
+// keeps the nodes in arrays, and MappedKdTree, which reads them from a mapped file. Subclasses only say where the
+// root is and how to read a node. The root is x oriented and orientation alternates with depth, as in KdTree.
+abstract class IndexedKdTree {
+
+    static final int NONE = -1;     // the index of an absent child
+
+    // index of the root; NONE if the tree is empty
+    abstract int root();
+
+    // coordinates of node i
+    abstract double x(int i);
+
+    abstract double y(int i);
+
+    // indices of the left/bottom and right/top children of node i
+    abstract int lb(int i);
+
+    abstract int rt(int i);
+
+    // is the point (x, y) in the tree?
+    boolean contains(double x, double y) {
+        boolean isXOriented = true;
+        int node = root();
+        while (node != NONE) {
+            if (x(node) == x && y(node) == y) return true;
+
+            boolean searchLeftBottom = isXOriented ? x < x(node) : y < y(node);
+            node = searchLeftBottom ? lb(node) : rt(node);
+            isXOriented = !isXOriented;
+        }
+        return false;
+    }
+
+    // push the points inside the rectangle onto intersectionPoints, for callers merging the results of several sets
+    void range(RectHV rect, Stack<Point2D> intersectionPoints) {
+        range(root(), true, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), intersectionPoints);
+    }
+
+    private void range(int node, boolean isXOriented, double xmin, double ymin, double xmax, double ymax,
+                       Stack<Point2D> intersectionPoints) {
+        if (node == NONE) return;
+
+        double x = x(node), y = y(node);
+        if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) intersectionPoints.push(new Point2D(x, y));
+
+        boolean searchLeftBottom = isXOriented ? xmin < x : ymin < y;
+        boolean searchRightTop = isXOriented ? xmax >= x : ymax >= y;
+
+        if (searchLeftBottom) range(lb(node), !isXOriented, xmin, ymin, xmax, ymax, intersectionPoints);
+        if (searchRightTop) range(rt(node), !isXOriented, xmin, ymin, xmax, ymax, intersectionPoints);
+    }
+
+    // The index of a nearest neighbor of (qx, qy) among the points at a squared distance below bound; NONE if there
+    // is none. Every point lies in [xmin, xmax] x [ymin, ymax], the root's region. The search starts from closest
+    // unless that is NONE, and node exclude is never taken as the closest.
+    int nearest(double xmin, double ymin, double xmax, double ymax, int closest, double bound, int exclude,
+                double qx, double qy) {
+        return nearest(root(), true, xmin, ymin, xmax, ymax, closest, bound, exclude, qx, qy);
+    }
+
+    // the region of a node is carried as primitive bounds; until a point beats the bound, closest is NONE
+    private int nearest(int node, boolean isXOriented, double xmin, double ymin, double xmax, double ymax,
+                        int closest, double bound, int exclude, double qx, double qy) {
+        if (node == NONE) return closest;
+        double closestDistance = closest == NONE ? bound : distanceSquaredTo(closest, qx, qy);
+        if (Rectangles.distanceSquaredTo(xmin, ymin, xmax, ymax, qx, qy) >= closestDistance) return closest;
+
+        if (node != exclude && distanceSquaredTo(node, qx, qy) < closestDistance) closest = node;
+
+        if (isXOriented) {
+            double x = x(node);
+            if (qx < x) {
+                closest = nearest(lb(node), false, xmin, ymin, x, ymax, closest, bound, exclude, qx, qy);
+                closest = nearest(rt(node), false, x, ymin, xmax, ymax, closest, bound, exclude, qx, qy);
+            } else {
+                closest = nearest(rt(node), false, x, ymin, xmax, ymax, closest, bound, exclude, qx, qy);
+                closest = nearest(lb(node), false, xmin, ymin, x, ymax, closest, bound, exclude, qx, qy);
+            }
+        } else {
+            double y = y(node);
+            if (qy < y) {
+                closest = nearest(lb(node), true, xmin, ymin, xmax, y, closest, bound, exclude, qx, qy);
+                closest = nearest(rt(node), true, xmin, y, xmax, ymax, closest, bound, exclude, qx, qy);
+            } else {
+                closest = nearest(rt(node), true, xmin, y, xmax, ymax, closest, bound, exclude, qx, qy);
+                closest = nearest(lb(node), true, xmin, ymin, xmax, y, closest, bound, exclude, qx, qy);
+            }
+        }
+        return closest;
+    }
+
+    private double distanceSquaredTo(int node, double qx, double qy) {
+        double dx = x(node) - qx;
+        double dy = y(node) - qy;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,11 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+// receives the points found by a batched search one at a time, tagged with the index of the query they answer
+@FunctionalInterface
+public interface IndexedPointVisitor {
+
+    // handle point p found by query i; return false to stop the search
+    boolean visit(int i, Point2D p);
+}
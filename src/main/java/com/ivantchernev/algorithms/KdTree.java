@@ -4,11 +4,45 @@ import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.Stack;
 import edu.princeton.cs.algs4.StdDraw;
-import edu.princeton.cs.algs4.In;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class KdTree {
 
-    private Node root;
+    // a subtree of n points may be at most log_{1/BALANCE}(n) + 2 levels tall before it is rebuilt; this leaves room
+    // for the ~2 log_2(n) levels a median split reaches when points share a coordinate and every other level
+    // sends them all right/top
+    private static final double BALANCE = 0.75;
+    private static final double LOG_INVERSE_BALANCE = Math.log(1 / BALANCE);
+
+    // In persistent mode no node reachable from a published root is ever modified: updates copy the nodes on
+    // their path and publish the new root through the volatile field. Every query reads root once, so it
+    // runs against one immutable version of the tree without taking any lock, even while a writer is busy.
+    private volatile Node root;
+    private int deleted;    // number of tombstones still in the tree
+    private final boolean isPersistent;
+    private final boolean isReadOnly;   // is this a snapshot, which refuses updates?
+    private final Object writeLock = new Object();  // serializes writers in persistent mode
+    private volatile Metrics metrics;   // null unless metrics are enabled
 
     private enum Color { BLACK, RED, BLUE }
 
@@ -17,21 +51,131 @@ public class KdTree {
         private final boolean isXOriented; // is this node x or y oriented?
         private Node lb;        // the left/bottom subtree
         private Node rt;        // the right/top subtree
-        private int size;       // size of tree rooted at this node
+        private int size;       // number of live points in the tree rooted at this node
+        private boolean isDeleted;  // is this node a tombstone left behind by delete?
+        private double xmin, ymin, xmax, ymax;  // bounding box of the points in the subtree, tombstones included
 
         public Node(Point2D p, boolean isXOriented) {
             this.p = p;
             this.isXOriented = isXOriented;
             this.size = 1;
+            this.xmin = this.xmax = p.x();
+            this.ymin = this.ymax = p.y();
+        }
+
+        // grow the bounding box to take in the point (x, y)
+        void include(double x, double y) {
+            if (x < xmin) xmin = x;
+            if (x > xmax) xmax = x;
+            if (y < ymin) ymin = y;
+            if (y > ymax) ymax = y;
+        }
+
+        // set the bounding box to just cover the node's point and its children's boxes
+        void fitBounds() {
+            xmin = xmax = p.x();
+            ymin = ymax = p.y();
+            if (lb != null) {
+                include(lb.xmin, lb.ymin);
+                include(lb.xmax, lb.ymax);
+            }
+            if (rt != null) {
+                include(rt.xmin, rt.ymin);
+                include(rt.xmax, rt.ymax);
+            }
         }
     }
 
     // construct an empty set of points
-    public KdTree() { }
+    public KdTree() {
+        this(false);
+    }
+
+    private KdTree(boolean isPersistent) {
+        this(isPersistent, false);
+    }
+
+    private KdTree(boolean isPersistent, boolean isReadOnly) {
+        this.isPersistent = isPersistent;
+        this.isReadOnly = isReadOnly;
+    }
+
+    // construct an empty set of points whose updates never modify a version of the tree that queries may be
+    // reading, so that queries can run concurrently with inserts and deletes (see snapshot())
+    public static KdTree persistent() {
+        return new KdTree(true);
+    }
+
+    // construct a balanced set of the given points (duplicates are only added once)
+    public KdTree(Point2D[] points) {
+        this(false);
+        if (points == null) throw new IllegalArgumentException();
+
+        double[] xs = new double[points.length];
+        double[] ys = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new IllegalArgumentException();
+            xs[i] = points[i].x();
+            ys[i] = points[i].y();
+        }
+
+        root = build(xs, ys);
+    }
+
+    // construct a balanced set of the points (xs[i], ys[i]) (duplicates are only added once)
+    public KdTree(double[] xs, double[] ys) {
+        this(false);
+        if (xs == null || ys == null || xs.length != ys.length) throw new IllegalArgumentException();
+
+        xs = xs.clone();
+        ys = ys.clone();
+        MedianPartition.checkCoordinates(xs, ys);
+
+        root = build(xs, ys);
+    }
+
+    // Construct the degenerate tree that inserting the points without rebalancing would give: each point is the
+    // right/top child of the one before it, so the tree is a chain as tall as it is large. Only tests need a tree
+    // this shape; the points have to be increasing in both x and y.
+    static KdTree chain(Point2D[] points) {
+        if (points == null) throw new IllegalArgumentException();
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new IllegalArgumentException();
+            if (i > 0 && (points[i].x() <= points[i - 1].x() || points[i].y() <= points[i - 1].y())) {
+                throw new IllegalArgumentException("points are not increasing in both x and y");
+            }
+        }
+
+        KdTree tree = new KdTree();
+        for (int i = points.length - 1; i >= 0; i--) {
+            Node node = new Node(points[i], i % 2 == 0);
+            node.rt = tree.root;
+            node.size = 1 + size(node.rt);
+            node.fitBounds();
+            tree.root = node;
+        }
+        return tree;
+    }
+
+    private static Node build(double[] xs, double[] ys) {
+        return build(xs, ys, xs.length, true);
+    }
+
+    // build a balanced subtree of the first n points whose root has the given orientation
+    private static Node build(double[] xs, double[] ys, int n, boolean isXOriented) {
+        return MedianPartition.build(xs, ys, 0, n - 1, isXOriented, (split, isX, lb, rt) -> {
+            Node node = new Node(new Point2D(xs[split], ys[split]), isX);
+            node.lb = lb;
+            node.rt = rt;
+            node.size = 1 + size(lb) + size(rt);
+            node.fitBounds();
+            return node;
+        });
+    }
 
     // is the set empty?
     public boolean isEmpty() {
-        return root == null;
+        return size() == 0;
     }
 
     // number of points in the set
@@ -39,67 +183,494 @@ public class KdTree {
         return size(root);
     }
 
-    private int size(Node node) {
+    private static int size(Node node) {
         return node == null ? 0 : node.size;
     }
 
+    // a rectangle holding every point in the set, the smallest one unless points were deleted since the last
+    // rebuild; null if the set is empty
+    public RectHV bounds() {
+        Node root = this.root;
+        if (size(root) == 0) return null;
+
+        return new RectHV(root.xmin, root.ymin, root.xmax, root.ymax);
+    }
+
+    // is this set in persistent mode?
+    public boolean isPersistent() {
+        return isPersistent;
+    }
+
+    // A read-only view of the set as it is now, unaffected by later updates; only available in persistent mode.
+    // insert and delete on the snapshot throw UnsupportedOperationException, and it records query metrics of its
+    // own, off until enabled on it.
+    public KdTree snapshot() {
+        if (!isPersistent) throw new UnsupportedOperationException("snapshots need a persistent KdTree");
+
+        return snapshot(null);
+    }
+
+    // a snapshot whose queries record to the given metrics (none if null)
+    private KdTree snapshot(Metrics metrics) {
+        // the snapshot shares every node, which is safe because persistent updates never modify a published node
+        KdTree snapshot = new KdTree(true, true);
+        synchronized (writeLock) {
+            snapshot.root = root;
+            snapshot.deleted = deleted;
+        }
+        snapshot.metrics = metrics;
+        return snapshot;
+    }
+
+    // Write the set to a binary file that MappedKdTree.open can answer queries from without rebuilding it. Nodes
+    // are written in preorder with their child indices, in the layout described in MappedKdTree; a tree holding
+    // tombstones is compacted into a fresh balanced copy first, so only live points reach the file. A set of more
+    // than MappedKdTree.MAX_SIZE points (about 89 million) is rejected before the file is touched.
+    public void save(String filename) throws IOException {
+        if (filename == null) throw new IllegalArgumentException();
+
+        KdTree tree = isPersistent ? snapshot() : this;
+        Node top = tree.root;
+        if (tree.deleted > 0 && top != null) {
+            double[] xs = new double[top.size];
+            double[] ys = new double[top.size];
+            collect(top, xs, ys);
+            top = build(xs, ys, top.size, true);
+        }
+        int n = size(top);
+        if (n > MappedKdTree.MAX_SIZE) {
+            throw new IllegalArgumentException("cannot save " + n + " points; MappedKdTree holds at most "
+                    + MappedKdTree.MAX_SIZE);
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    MappedKdTree.HEADER_BYTES + (long) n * MappedKdTree.NODE_BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+            double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+            int index = 0;
+            buffer.position(MappedKdTree.HEADER_BYTES);
+            Traversal stack = Traversal.acquire();
+            try {
+                if (top != null) stack.push(top);
+                while (!stack.isEmpty()) {
+                    Node node = stack.pop();
+                    double x = node.p.x(), y = node.p.y();
+                    xmin = Math.min(xmin, x);
+                    xmax = Math.max(xmax, x);
+                    ymin = Math.min(ymin, y);
+                    ymax = Math.max(ymax, y);
+
+                    // preorder puts the left/bottom subtree right after the node and the right/top one after that
+                    int lb = size(node.lb), rt = size(node.rt);
+                    buffer.putDouble(x).putDouble(y);
+                    buffer.putInt(lb > 0 ? index + 1 : MappedKdTree.NONE);
+                    buffer.putInt(rt > 0 ? index + 1 + lb : MappedKdTree.NONE);
+                    index++;
+
+                    if (rt > 0) stack.push(node.rt);
+                    if (lb > 0) stack.push(node.lb);
+                }
+            } finally {
+                stack.release();
+            }
+
+            buffer.position(0);
+            buffer.putInt(MappedKdTree.MAGIC).putInt(n);
+            buffer.putDouble(xmin).putDouble(ymin).putDouble(xmax).putDouble(ymax);
+            buffer.force();
+        }
+    }
+
+    // An immutable copy of the set in flat primitive arrays with its nodes in the given layout, for read-only use
+    // where the pointer-chasing of Node objects costs more than rebuilding once. The copy is balanced afresh.
+    public FlatKdTree flatten(FlatKdTree.Layout layout) {
+        if (layout == null) throw new IllegalArgumentException();
+
+        Node top = isPersistent ? snapshot().root : root;
+        double[] xs = new double[size(top)];
+        double[] ys = new double[size(top)];
+        if (top != null) collect(top, xs, ys);
+        return new FlatKdTree(xs, ys, layout);
+    }
+
+    // the node itself, or in persistent mode an unpublished copy of it that an update may modify
+    private Node writable(Node node) {
+        if (!isPersistent) return node;
+
+        Node copy = new Node(node.p, node.isXOriented);
+        copy.lb = node.lb;
+        copy.rt = node.rt;
+        copy.size = node.size;
+        copy.isDeleted = node.isDeleted;
+        copy.xmin = node.xmin;
+        copy.ymin = node.ymin;
+        copy.xmax = node.xmax;
+        copy.ymax = node.ymax;
+        return copy;
+    }
+
     // add the point to the set (if it is not already in the set)
     public void insert(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
-        if (contains(p)) return;
+        if (isReadOnly) throw new UnsupportedOperationException("snapshots cannot be updated");
 
-        root = insert(root, p, false);
+        if (isPersistent) {
+            synchronized (writeLock) {
+                add(p);
+            }
+        } else {
+            add(p);
+        }
     }
 
-    private Node insert(Node node, Point2D p, boolean parentIsXOriented) {
-        if (node == null) return new Node(p, !parentIsXOriented);
+    private void add(Point2D p) {
+        Node existing = find(p);
+        if (existing != null && !existing.isDeleted) return;
+
+        if (root == null) {
+            root = new Node(p, true);
+            return;
+        }
 
-        boolean insertIntoLeftBottom = node.isXOriented ? p.x() < node.p.x() : p.y() < node.p.y();
-        if (insertIntoLeftBottom) node.lb = insert(node.lb, p, node.isXOriented);
-        else                      node.rt = insert(node.rt, p, node.isXOriented);
+        Traversal path = Traversal.acquire();
+        try {
+            // p is not in the set yet, so every node on the way down gains one point and has to cover it
+            Node top = writable(root);
+            Node node = top, original = root;
+            while (true) {
+                node.size++;
+                node.include(p.x(), p.y());
+                path.push(node);
 
-        node.size = 1 + size(node.lb) + size(node.rt);
-        return node;
+                // p was deleted earlier and its tombstone is still here to be brought back
+                if (original == existing) {
+                    node.isDeleted = false;
+                    deleted--;
+                    root = top;
+                    return;
+                }
+
+                boolean insertIntoLeftBottom = node.isXOriented ? p.x() < node.p.x() : p.y() < node.p.y();
+                if (insertIntoLeftBottom) {
+                    if (node.lb == null) {
+                        node.lb = new Node(p, !node.isXOriented);
+                        break;
+                    }
+                    original = node.lb;
+                    node = node.lb = writable(node.lb);
+                } else {
+                    if (node.rt == null) {
+                        node.rt = new Node(p, !node.isXOriented);
+                        break;
+                    }
+                    original = node.rt;
+                    node = node.rt = writable(node.rt);
+                }
+            }
+
+            if (isTooTall(path.size(), top.size)) top = rebuildScapegoat(path, top);
+            root = top;
+        } finally {
+            path.release();
+        }
+    }
+
+    // Walk back up the insertion path to the lowest node whose subtree has grown too tall for its size and
+    // rebuild that subtree around medians. Such a node is only found after its subtree has absorbed a share of
+    // new points proportional to its size, so the O(m log m) rebuild keeps inserts amortized O(log^2 n), and
+    // every query path stays within log_{1/BALANCE}(n) + 2 levels. Returns the (possibly new) top of the tree.
+    private Node rebuildScapegoat(Traversal path, Node top) {
+        int depth = path.size();    // depth of the node that was just inserted
+        while (!path.isEmpty()) {
+            Node node = path.pop();
+            if (!isTooTall(depth - path.size(), node.size)) continue;
+
+            Node rebuilt = rebuild(node);
+            Node parent = path.isEmpty() ? null : path.pop();
+            if      (parent == null)     return rebuilt;
+            else if (parent.lb == node)  parent.lb = rebuilt;
+            else                         parent.rt = rebuilt;
+            return top;
+        }
+        return top;
+    }
+
+    // can a subtree of the given size not have a path of the given length (in edges) below its root?
+    private static boolean isTooTall(int height, int size) {
+        return height > Math.log(size) / LOG_INVERSE_BALANCE + 2;
+    }
+
+    // a balanced copy of the live points in the subtree rooted at node; its tombstones are dropped
+    private Node rebuild(Node node) {
+        double[] xs = new double[node.size];
+        double[] ys = new double[node.size];
+        deleted -= collect(node, xs, ys);
+
+        return build(xs, ys, node.size, node.isXOriented);
+    }
+
+    // copy the live points under node into xs and ys and return the number of tombstones passed over
+    private static int collect(Node node, double[] xs, double[] ys) {
+        int n = 0;
+        int tombstones = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node next = stack.pop();
+                if (next.isDeleted) {
+                    tombstones++;
+                } else {
+                    xs[n] = next.p.x();
+                    ys[n] = next.p.y();
+                    n++;
+                }
+
+                if (next.lb != null) stack.push(next.lb);
+                if (next.rt != null) stack.push(next.rt);
+            }
+        } finally {
+            stack.release();
+        }
+        return tombstones;
+    }
+
+    // height of the tree, counted in nodes (0 when empty)
+    int height() {
+        Node root = this.root;
+        int height = 0;
+        ArrayDeque<Node> level = new ArrayDeque<>();
+        if (root != null) level.add(root);
+
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node node = level.remove();
+                if (node.lb != null) level.add(node.lb);
+                if (node.rt != null) level.add(node.rt);
+            }
+        }
+        return height;
+    }
+
+    // the number of nodes and how evenly they split their points at every depth of the tree
+    public TreeShape shape() {
+        Node root = this.root;
+        int[] counts = new int[64];
+        double[] balanceFactors = new double[64];
+        int height = 0;
+        ArrayDeque<Node> level = new ArrayDeque<>();
+        if (root != null) level.add(root);
+
+        while (!level.isEmpty()) {
+            if (height == counts.length) {
+                counts = Arrays.copyOf(counts, 2 * height);
+                balanceFactors = Arrays.copyOf(balanceFactors, 2 * height);
+            }
+
+            int count = level.size();
+            double imbalance = 0;
+            for (int i = count; i > 0; i--) {
+                Node node = level.remove();
+                int lb = size(node.lb), rt = size(node.rt);
+                if (lb + rt > 0) imbalance += (double) Math.abs(lb - rt) / (lb + rt);
+
+                if (node.lb != null) level.add(node.lb);
+                if (node.rt != null) level.add(node.rt);
+            }
+            counts[height] = count;
+            balanceFactors[height] = imbalance / count;
+            height++;
+        }
+        return new TreeShape(Arrays.copyOf(counts, height), Arrays.copyOf(balanceFactors, height));
+    }
+
+    // Start recording how much of the tree nearest(Point2D) and range queries walk; see nearestMetrics() and
+    // rangeMetrics(). Recorded queries run the same search as any other; with metrics off (the default) it reports
+    // what it does to a probe that ignores it. Snapshots of a persistent set record separately.
+    public void enableMetrics() {
+        if (metrics == null) metrics = new Metrics();
+    }
+
+    // stop recording query metrics and drop the ones recorded so far
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    // are query metrics being recorded?
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    // what the nearest neighbor queries recorded since metrics were enabled did; null if metrics are off
+    public QueryMetrics nearestMetrics() {
+        Metrics metrics = this.metrics;
+        return metrics == null ? null : metrics.nearest.snapshot();
+    }
+
+    // what the range queries recorded since metrics were enabled did; null if metrics are off
+    public QueryMetrics rangeMetrics() {
+        Metrics metrics = this.metrics;
+        return metrics == null ? null : metrics.range.snapshot();
+    }
+
+    private static final class Metrics {
+        private final QueryMetrics.Recorder nearest = new QueryMetrics.Recorder();
+        private final QueryMetrics.Recorder range = new QueryMetrics.Recorder();
+    }
+
+    // Register a KdTreeMXBean for this set with the platform MBean server under
+    // com.ivantchernev.algorithms:type=KdTree,name=<name> and return that name. The server keeps a reference to the
+    // set until the name is unregistered.
+    public ObjectName registerMBean(String name) {
+        if (name == null) throw new IllegalArgumentException();
+
+        try {
+            ObjectName objectName = new ObjectName("com.ivantchernev.algorithms:type=KdTree,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Monitor(this), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("cannot register an MBean named " + name, e);
+        }
+    }
+
+    private static class Monitor implements KdTreeMXBean {
+        private final KdTree tree;
+
+        Monitor(KdTree tree) {
+            this.tree = tree;
+        }
+
+        @Override public int getSize() { return tree.size(); }
+        @Override public int getHeight() { return tree.shape().height(); }
+        @Override public int[] getDepthHistogram() { return tree.shape().depthHistogram(); }
+        @Override public double[] getBalanceFactors() { return tree.shape().balanceFactors(); }
+
+        @Override public boolean isMetricsEnabled() { return tree.isMetricsEnabled(); }
+
+        @Override
+        public void setMetricsEnabled(boolean enabled) {
+            if (enabled) tree.enableMetrics();
+            else tree.disableMetrics();
+        }
+
+        @Override public long getNearestQueries() { return nearest().queries(); }
+        @Override public double getNearestMeanNodesVisited() { return nearest().meanNodesVisited(); }
+        @Override public long getNearestMaxNodesVisited() { return nearest().maxNodesVisited(); }
+        @Override public double getNearestPruningRatio() { return nearest().pruningRatio(); }
+        @Override public long getNearestMaxDepth() { return nearest().maxDepth(); }
+
+        @Override public long getRangeQueries() { return range().queries(); }
+        @Override public double getRangeMeanNodesVisited() { return range().meanNodesVisited(); }
+        @Override public long getRangeMaxNodesVisited() { return range().maxNodesVisited(); }
+        @Override public double getRangePruningRatio() { return range().pruningRatio(); }
+        @Override public long getRangeMaxDepth() { return range().maxDepth(); }
+
+        // with metrics off, every counter reads 0
+        private QueryMetrics nearest() {
+            QueryMetrics metrics = tree.nearestMetrics();
+            return metrics == null ? new QueryMetrics.Recorder().snapshot() : metrics;
+        }
+
+        private QueryMetrics range() {
+            QueryMetrics metrics = tree.rangeMetrics();
+            return metrics == null ? new QueryMetrics.Recorder().snapshot() : metrics;
+        }
+    }
+
+    // remove the point from the set (if it is in the set)
+    public void delete(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+        if (isReadOnly) throw new UnsupportedOperationException("snapshots cannot be updated");
+
+        if (isPersistent) {
+            synchronized (writeLock) {
+                remove(p);
+            }
+        } else {
+            remove(p);
+        }
+    }
+
+    private void remove(Point2D p) {
+        Node target = find(p);
+        if (target == null || target.isDeleted) return;
+
+        // the node stays in place as a tombstone and every node on the way down loses one point
+        Node top = writable(root);
+        Node node = top, original = root;
+        while (original != target) {
+            node.size--;
+            if (node.isXOriented ? p.x() < node.p.x() : p.y() < node.p.y()) {
+                original = node.lb;
+                node = node.lb = writable(node.lb);
+            } else {
+                original = node.rt;
+                node = node.rt = writable(node.rt);
+            }
+        }
+        node.size--;
+        node.isDeleted = true;
+        deleted++;
+
+        // once tombstones outnumber live points, rebuild without them; as that takes more than n/2 deletes
+        // to come around again, the O(n log n) rebuild only costs O(log n) per delete
+        if (deleted > top.size) top = rebuild(top);
+        root = top;
     }
 
     // does the set contain point p?
     public boolean contains(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
 
-        return contains(root, p);
+        Node node = find(p);
+        return node != null && !node.isDeleted;
     }
 
-    private boolean contains(Node node, Point2D p) {
-        if (node == null) return false;
-        if (node.p.equals(p)) return true;
+    // the node holding point p, which may be a tombstone; null if there is none
+    private Node find(Point2D p) {
+        Node node = root;
+        while (node != null) {
+            if (node.p.equals(p)) return node;
 
-        boolean searchLeftBottom = node.isXOriented ? p.x() < node.p.x() : p.y() < node.p.y();
-        if (searchLeftBottom) return contains(node.lb, p);
-        else                  return contains(node.rt, p);
+            boolean searchLeftBottom = node.isXOriented ? p.x() < node.p.x() : p.y() < node.p.y();
+            node = searchLeftBottom ? node.lb : node.rt;
+        }
+        return null;
     }
 
-    // draw all points to standard draw
+    // draw all points to standard draw, with the splitting lines clipped to the tree's bounding box
     public void draw() {
-        drawLine(0, 0, 1, 0, Color.BLACK);
-        drawLine(0, 0, 0, 1, Color.BLACK);
-        drawLine(0, 1, 1, 1, Color.BLACK);
-        drawLine(1, 0, 1, 1, Color.BLACK);
-        draw(root, new RectHV(0, 0, 1, 1));
-    }
+        Node root = this.root;
+        if (root == null) return;
+
+        drawLine(root.xmin, root.ymin, root.xmax, root.ymin, Color.BLACK);
+        drawLine(root.xmin, root.ymin, root.xmin, root.ymax, Color.BLACK);
+        drawLine(root.xmin, root.ymax, root.xmax, root.ymax, Color.BLACK);
+        drawLine(root.xmax, root.ymin, root.xmax, root.ymax, Color.BLACK);
 
-    private void draw(Node node, RectHV limitRectangle) {
-        if (node == null) return;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root, root.xmin, root.ymin, root.xmax, root.ymax);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                double xmin = stack.xmin(), ymin = stack.ymin(), xmax = stack.xmax(), ymax = stack.ymax();
 
-        // drawing code
-        drawPoint(node.p);
+                if (!node.isDeleted) drawPoint(node.p);
 
-        Color lineColor = node.isXOriented ? Color.RED : Color.BLUE;
-        if (node.isXOriented) drawLine(node.p.x(), limitRectangle.ymax(), node.p.x(), limitRectangle.ymin(), lineColor);
-        else                  drawLine(limitRectangle.xmax(), node.p.y(), limitRectangle.xmin(), node.p.y(), lineColor);
+                Color lineColor = node.isXOriented ? Color.RED : Color.BLUE;
+                if (node.isXOriented) drawLine(node.p.x(), ymax, node.p.x(), ymin, lineColor);
+                else                  drawLine(xmax, node.p.y(), xmin, node.p.y(), lineColor);
 
-        // recurse through tree
-        draw(node.lb, getLeftBottomLimitRectangle(node, limitRectangle));
-        draw(node.rt, getRightTopLimitRectangle(node, limitRectangle));
+                pushSubtrees(node, xmin, ymin, xmax, ymax, stack);
+            }
+        } finally {
+            stack.release();
+        }
     }
 
     private void drawPoint(Point2D p) {
@@ -134,98 +705,1042 @@ public class KdTree {
         if (rect == null) throw new IllegalArgumentException();
 
         Stack<Point2D> intersectionPoints = new Stack<>();
-        return range(root, intersectionPoints, rect);
+        range(rect, p -> {
+            intersectionPoints.push(p);
+            return true;
+        });
+        return intersectionPoints;
     }
 
-    private Stack<Point2D> range(Node node, Stack<Point2D> intersectionPoints, RectHV rect) {
-        if (node == null) return intersectionPoints;
-        if (rect.contains(node.p)) intersectionPoints.push(node.p);
+    // hand every point inside the rectangle (or on the boundary) to the visitor until it returns false;
+    // returns true if the search ran to completion
+    public boolean range(RectHV rect, PointVisitor visitor) {
+        if (rect == null || visitor == null) throw new IllegalArgumentException();
 
-        boolean searchLeftBottom = node.isXOriented ? rect.xmin() < node.p.x() : rect.ymin() < node.p.y();
-        boolean searchRightTop = node.isXOriented ? rect.xmax() > node.p.x() : rect.ymax() > node.p.y();
+        Node root = this.root;
+        if (size(root) == 0) return true;
 
-        if (searchLeftBottom) intersectionPoints = range(node.lb, intersectionPoints, rect);
-        if (searchRightTop) intersectionPoints = range(node.rt, intersectionPoints, rect);
+        Metrics metrics = this.metrics;
+        QueryMetrics.Counter counter = metrics == null ? null : new QueryMetrics.Counter();
+        QueryMetrics.Probe probe = counter == null ? QueryMetrics.Probe.NONE : counter;
 
-        return intersectionPoints;
+        Traversal stack = Traversal.acquire();
+        try {
+            if (!mayIntersect(root, rect)) {
+                probe.prune();
+                return true;
+            }
+
+            stack.push(root, 0);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                int depth = stack.depth();
+                probe.visit(depth);
+                if (!node.isDeleted && rect.contains(node.p) && !visitor.visit(node.p)) return false;
+
+                // the left/bottom subtree goes on top so that it is searched first
+                pushIfIntersects(node.rt, rect, depth + 1, stack, probe);
+                pushIfIntersects(node.lb, rect, depth + 1, stack, probe);
+            }
+            return true;
+        } finally {
+            stack.release();
+            if (counter != null) metrics.range.record(counter);
+        }
+    }
+
+    // push a subtree at the given depth unless it holds no live points or its bounding box misses the rectangle
+    private static void pushIfIntersects(Node subtree, RectHV rect, int depth, Traversal stack,
+                                         QueryMetrics.Probe probe) {
+        if (size(subtree) == 0) return;
+
+        if (mayIntersect(subtree, rect)) {
+            probe.descend();
+            stack.push(subtree, depth);
+        } else {
+            probe.prune();
+        }
+    }
+
+    // does the subtree hold live points and does its bounding box meet the rectangle? The box of a subtree lies on
+    // its side of every splitting line above it, so this also rules out subtrees on the wrong side of a split.
+    private static boolean mayIntersect(Node subtree, RectHV rect) {
+        return size(subtree) > 0
+                && subtree.xmax >= rect.xmin() && subtree.xmin <= rect.xmax()
+                && subtree.ymax >= rect.ymin() && subtree.ymin <= rect.ymax();
+    }
+
+    // Hand every point inside each of the rectangles (or on its boundary) to the visitor, tagged with the index of
+    // the rectangle, until it returns false; returns true if the search ran to completion. A point inside several
+    // rectangles is handed over once for each. All rectangles go down the tree in one traversal, so the levels
+    // they share are walked once rather than once per rectangle: each node carries the rectangles that may still
+    // meet its subtree, a rectangle is dropped where a subtree's bounding box misses it, and once a box lies
+    // wholly inside a rectangle its points are reported for that rectangle without being tested.
+    public boolean range(RectHV[] rects, IndexedPointVisitor visitor) {
+        if (rects == null || visitor == null) throw new IllegalArgumentException();
+        for (RectHV rect : rects) {
+            if (rect == null) throw new IllegalArgumentException();
+        }
+
+        Node root = this.root;
+        if (size(root) == 0) return true;
+
+        // every rectangle starts out active above the root; its bounds are copied next to each other as
+        // xmin, ymin, xmax, ymax, so the tests at each node read one array
+        double[] bounds = new double[4 * rects.length];
+        ActiveRects active = new ActiveRects(rects.length);
+        for (int r = 0; r < rects.length; r++) {
+            bounds[4 * r]     = rects[r].xmin();
+            bounds[4 * r + 1] = rects[r].ymin();
+            bounds[4 * r + 2] = rects[r].xmax();
+            bounds[4 * r + 3] = rects[r].ymax();
+            active.add(r);
+        }
+        return range(root, rects, bounds, active, visitor);
+    }
+
+    // Search the tree below root, each subtree with the rectangles active.items[from..to) that were active at its
+    // parent: an index r is a rectangle to test points against, ~r a rectangle known to contain the whole subtree.
+    // The ones that still matter for a subtree are appended to active as it is searched. Subtrees come off the
+    // stack depth first, so whatever lies past the parent's run by then belongs to subtrees already searched.
+    private static boolean range(Node root, RectHV[] rects, double[] bounds, ActiveRects active,
+                                 IndexedPointVisitor visitor) {
+        PendingSubtrees pending = new PendingSubtrees();
+        pending.push(root, 0, active.size);
+        while (!pending.isEmpty()) {
+            Node subtree = pending.pop();
+            int from = pending.from(), to = pending.to();
+
+            active.size = to;
+            for (int k = from; k < to; k++) {
+                int r = active.items[k];
+                if (r >= 0) {
+                    double xmin = bounds[4 * r], ymin = bounds[4 * r + 1];
+                    double xmax = bounds[4 * r + 2], ymax = bounds[4 * r + 3];
+                    if (subtree.xmax < xmin || subtree.xmin > xmax || subtree.ymax < ymin || subtree.ymin > ymax) continue;
+                    if (subtree.xmin >= xmin && subtree.xmax <= xmax && subtree.ymin >= ymin && subtree.ymax <= ymax) {
+                        r = ~r;
+                    }
+                }
+                active.add(r);
+            }
+            int start = to, end = active.size;
+
+            if (start == end) continue;
+            if (end - start == 1) {
+                if (!range(subtree, rects, active.items[start], visitor)) return false;
+                continue;
+            }
+
+            if (!subtree.isDeleted) {
+                double x = subtree.p.x(), y = subtree.p.y();
+                for (int k = start; k < end; k++) {
+                    int r = active.items[k];
+                    boolean isInside = r < 0 || (x >= bounds[4 * r] && y >= bounds[4 * r + 1]
+                                                 && x <= bounds[4 * r + 2] && y <= bounds[4 * r + 3]);
+                    if (isInside && !visitor.visit(r < 0 ? ~r : r, subtree.p)) return false;
+                }
+            }
+
+            // the left/bottom subtree goes on top so that it is searched first
+            if (size(subtree.rt) > 0) pending.push(subtree.rt, start, end);
+            if (size(subtree.lb) > 0) pending.push(subtree.lb, start, end);
+        }
+        return true;
+    }
+
+    // Search the subtree for the one rectangle left active there, with the same loop as a single range query. Most
+    // of a batched search happens here, below the levels where the rectangles part ways.
+    private static boolean range(Node subtree, RectHV[] rects, int r, IndexedPointVisitor visitor) {
+        boolean isCovered = r < 0;
+        int i = isCovered ? ~r : r;
+        RectHV rect = rects[i];
+
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(subtree);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (!node.isDeleted && (isCovered || rect.contains(node.p)) && !visitor.visit(i, node.p)) return false;
+
+                if (isCovered) {
+                    pushSubtrees(node, stack);
+                } else {
+                    if (mayIntersect(node.rt, rect)) stack.push(node.rt);
+                    if (mayIntersect(node.lb, rect)) stack.push(node.lb);
+                }
+            }
+            return true;
+        } finally {
+            stack.release();
+        }
+    }
+
+    // subtrees a batched range search has still to search, each with the run of active rectangles at its parent
+    private static final class PendingSubtrees {
+        private Node[] nodes = new Node[64];
+        private int[] runs = new int[2 * 64];
+        private int n;
+
+        boolean isEmpty() {
+            return n == 0;
+        }
+
+        void push(Node node, int from, int to) {
+            if (n == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * n);
+                runs = Arrays.copyOf(runs, 4 * n);
+            }
+            runs[2 * n]     = from;
+            runs[2 * n + 1] = to;
+            nodes[n++] = node;
+        }
+
+        // remove the top subtree; its run stays readable through from() and to() until the next push
+        Node pop() {
+            Node node = nodes[--n];
+            nodes[n] = null;
+            return node;
+        }
+
+        int from() { return runs[2 * n]; }
+        int to() { return runs[2 * n + 1]; }
+    }
+
+    // the active rectangles of every node on the current path, each node's run right after its parent's
+    private static final class ActiveRects {
+        private int[] items;
+        private int size;
+
+        ActiveRects(int capacity) {
+            items = new int[Math.max(16, 4 * capacity)];
+        }
+
+        void add(int r) {
+            if (size == items.length) items = Arrays.copyOf(items, 2 * size);
+            items[size++] = r;
+        }
+    }
+
+    // iterator over the points inside the rectangle (or on the boundary) that walks the tree as it is advanced
+    public Iterator<Point2D> rangeIterator(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        return new RangeIterator(root, rect);
+    }
+
+    private static class RangeIterator implements Iterator<Point2D> {
+        private final RectHV rect;
+        private Node[] pending = new Node[64];    // explicit stack of subtrees still to be searched
+        private int n;
+        private Node next;
+
+        RangeIterator(Node root, RectHV rect) {
+            this.rect = rect;
+            if (mayIntersect(root, rect)) pending[n++] = root;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Point2D next() {
+            if (next == null) throw new NoSuchElementException();
+
+            Point2D p = next.p;
+            advance();
+            return p;
+        }
+
+        // pop subtrees until one is rooted at a point inside the rectangle
+        private void advance() {
+            next = null;
+            while (n > 0 && next == null) {
+                Node node = pending[--n];
+                pending[n] = null;
+
+                // the left/bottom subtree goes on top so points come out in the same order as range
+                if (mayIntersect(node.rt, rect)) push(node.rt);
+                if (mayIntersect(node.lb, rect)) push(node.lb);
+
+                if (!node.isDeleted && rect.contains(node.p)) next = node;
+            }
+        }
+
+        private void push(Node node) {
+            if (n == pending.length) pending = Arrays.copyOf(pending, 2 * n);
+            pending[n++] = node;
+        }
+    }
+
+    // number of points that are inside the rectangle (or on the boundary)
+    public int rangeCount(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        Node root = this.root;
+        if (!mayIntersect(root, rect)) return 0;
+
+        int count = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+
+                // the subtree's whole bounding box lies inside the rectangle, so every point in it counts
+                if (node.xmin >= rect.xmin() && node.xmax <= rect.xmax()
+                        && node.ymin >= rect.ymin() && node.ymax <= rect.ymax()) {
+                    count += node.size;
+                    continue;
+                }
+
+                if (!node.isDeleted && rect.contains(node.p)) count++;
+                if (mayIntersect(node.rt, rect)) stack.push(node.rt);
+                if (mayIntersect(node.lb, rect)) stack.push(node.lb);
+            }
+        } finally {
+            stack.release();
+        }
+        return count;
+    }
+
+    // all points within distance r of center (including those exactly r away)
+    public Iterable<Point2D> withinRadius(Point2D center, double r) {
+        if (center == null || !(r >= 0)) throw new IllegalArgumentException();
+
+        Stack<Point2D> pointsWithinRadius = new Stack<>();
+        Node root = this.root;
+        if (root == null) return pointsWithinRadius;
+
+        double cx = center.x(), cy = center.y(), radiusSquared = r * r;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (boundsDistanceSquaredTo(node, cx, cy) > radiusSquared) continue;
+
+                if (!node.isDeleted && distanceSquaredTo(node, cx, cy) <= radiusSquared) pointsWithinRadius.push(node.p);
+                pushSubtrees(node, stack);
+            }
+        } finally {
+            stack.release();
+        }
+        return pointsWithinRadius;
+    }
+
+    // number of points within distance r of center (including those exactly r away)
+    public int countWithinRadius(Point2D center, double r) {
+        if (center == null || !(r >= 0)) throw new IllegalArgumentException();
+
+        Node root = this.root;
+        if (root == null) return 0;
+
+        double cx = center.x(), cy = center.y(), radiusSquared = r * r;
+        int count = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (boundsDistanceSquaredTo(node, cx, cy) > radiusSquared) continue;
+
+                // the whole bounding box lies inside the circle, so every point in the subtree counts
+                double farthest = Rectangles.farthestDistanceSquaredTo(node.xmin, node.ymin, node.xmax, node.ymax, cx, cy);
+                if (farthest <= radiusSquared) {
+                    count += node.size;
+                    continue;
+                }
+
+                if (!node.isDeleted && distanceSquaredTo(node, cx, cy) <= radiusSquared) count++;
+                pushSubtrees(node, stack);
+            }
+        } finally {
+            stack.release();
+        }
+        return count;
+    }
+
+    // Hand every pair of a point p of this set and a point q of the other set at distance at most r to the visitor
+    // as visitor.visit(p, q), until it returns false; returns true if the join ran to completion. Both trees are
+    // walked together, so a pair of subtrees whose bounding boxes are more than r apart is ruled out at once, and a
+    // pair whose boxes lie wholly within r of each other is reported without measuring any distance.
+    public boolean join(KdTree other, double r, PairVisitor visitor) {
+        if (other == null || !(r >= 0) || visitor == null) throw new IllegalArgumentException();
+
+        return join(root, other.root, r * r, visitor);
+    }
+
+    // join(other, r, visitor) run on the fork-join pool, which calls the visitor from several threads at once, so
+    // it has to be thread-safe. Once it returns false the other tasks stop at their next pair.
+    public boolean joinInParallel(KdTree other, double r, PairVisitor visitor) {
+        if (other == null || !(r >= 0) || visitor == null) throw new IllegalArgumentException();
+
+        AtomicBoolean isStopped = new AtomicBoolean();
+        PairVisitor guarded = (p, q) -> {
+            if (isStopped.get()) return false;
+            if (visitor.visit(p, q)) return true;
+
+            isStopped.set(true);
+            return false;
+        };
+        ForkJoinPool.commonPool().invoke(new JoinTask(root, other.root, r * r, guarded, isStopped));
+        return !isStopped.get();
+    }
+
+    // splits the larger of the two subtrees and joins each half with the other subtree as a separate task
+    private static class JoinTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 12;
+
+        private final Node a;
+        private final Node b;
+        private final double radiusSquared;
+        private final PairVisitor visitor;
+        private final AtomicBoolean isStopped;
+
+        JoinTask(Node a, Node b, double radiusSquared, PairVisitor visitor, AtomicBoolean isStopped) {
+            this.a = a;
+            this.b = b;
+            this.radiusSquared = radiusSquared;
+            this.visitor = visitor;
+            this.isStopped = isStopped;
+        }
+
+        // Fork the smaller child of the side being split and carry on with the larger one in a loop, so a task only
+        // ever waits on, and may run inline, tasks at most half its size: however tall the trees, tasks nest at
+        // most O(log n) deep on a worker's stack.
+        @Override
+        protected void compute() {
+            List<JoinTask> forked = new ArrayList<>();
+            Node a = this.a, b = this.b;
+            while (!isStopped.get() && size(a) > 0 && size(b) > 0) {
+                if (size(a) + size(b) <= SEQUENTIAL_THRESHOLD || !mayBeWithin(a, b, radiusSquared)
+                        || areWithin(a, b, radiusSquared)) {
+                    KdTree.join(a, b, radiusSquared, visitor);
+                    break;
+                }
+
+                if (size(a) >= size(b)) {
+                    if (!a.isDeleted && !pairsWithin(a.p, b, radiusSquared, visitor, true)) break;
+                    Node larger = size(a.lb) >= size(a.rt) ? a.lb : a.rt;
+                    Node smaller = larger == a.lb ? a.rt : a.lb;
+                    if (size(smaller) > 0) fork(new JoinTask(smaller, b, radiusSquared, visitor, isStopped), forked);
+                    a = larger;
+                } else {
+                    if (!b.isDeleted && !pairsWithin(b.p, a, radiusSquared, visitor, false)) break;
+                    Node larger = size(b.lb) >= size(b.rt) ? b.lb : b.rt;
+                    Node smaller = larger == b.lb ? b.rt : b.lb;
+                    if (size(smaller) > 0) fork(new JoinTask(a, smaller, radiusSquared, visitor, isStopped), forked);
+                    b = larger;
+                }
+            }
+
+            for (int i = forked.size() - 1; i >= 0; i--) forked.get(i).join();
+        }
+
+        private static void fork(JoinTask task, List<JoinTask> forked) {
+            task.fork();
+            forked.add(task);
+        }
+    }
+
+    // The pairs of subtrees a and b are the pairs of the larger subtree's own point with the other subtree, plus
+    // the pairs of each of its children with the other subtree; splitting the larger side keeps both shrinking.
+    private static boolean join(Node a, Node b, double radiusSquared, PairVisitor visitor) {
+        // pairs of subtrees still to be joined, each pushed as b then a; the thread's cached stack is left to
+        // pairsWithin and allPairs, which run while this one is busy
+        Traversal pairs = new Traversal();
+        pairs.push(b);
+        pairs.push(a);
+        while (!pairs.isEmpty()) {
+            a = pairs.pop();
+            b = pairs.pop();
+            if (size(a) == 0 || size(b) == 0 || !mayBeWithin(a, b, radiusSquared)) continue;
+            if (areWithin(a, b, radiusSquared)) {
+                if (!allPairs(a, b, visitor)) return false;
+                continue;
+            }
+
+            // the pair with the left/bottom child goes on top so that it is joined first
+            if (size(a) >= size(b)) {
+                if (!a.isDeleted && !pairsWithin(a.p, b, radiusSquared, visitor, true)) return false;
+                pairs.push(b);
+                pairs.push(a.rt);
+                pairs.push(b);
+                pairs.push(a.lb);
+            } else {
+                if (!b.isDeleted && !pairsWithin(b.p, a, radiusSquared, visitor, false)) return false;
+                pairs.push(b.rt);
+                pairs.push(a);
+                pairs.push(b.lb);
+                pairs.push(a);
+            }
+        }
+        return true;
+    }
+
+    // pair p with every live point of the subtree within the radius, p going first if isFirst
+    private static boolean pairsWithin(Point2D p, Node subtree, double radiusSquared, PairVisitor visitor,
+                                       boolean isFirst) {
+        double px = p.x(), py = p.y();
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(subtree);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (boundsDistanceSquaredTo(node, px, py) > radiusSquared) continue;
+
+                if (!node.isDeleted && distanceSquaredTo(node, px, py) <= radiusSquared) {
+                    if (!(isFirst ? visitor.visit(p, node.p) : visitor.visit(node.p, p))) return false;
+                }
+                pushSubtrees(node, stack);
+            }
+            return true;
+        } finally {
+            stack.release();
+        }
+    }
+
+    // pair every live point of a with every live point of b
+    private static boolean allPairs(Node a, Node b, PairVisitor visitor) {
+        Point2D[] as = livePoints(a), bs = livePoints(b);
+        for (Point2D p : as) {
+            for (Point2D q : bs) {
+                if (!visitor.visit(p, q)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static Point2D[] livePoints(Node subtree) {
+        Point2D[] points = new Point2D[subtree.size];
+        int n = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(subtree);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (!node.isDeleted) points[n++] = node.p;
+                pushSubtrees(node, stack);
+            }
+        } finally {
+            stack.release();
+        }
+        return points;
+    }
+
+    // can some point of a be within the radius of some point of b, going by their bounding boxes?
+    private static boolean mayBeWithin(Node a, Node b, double radiusSquared) {
+        double dx = Math.max(0.0, Math.max(a.xmin - b.xmax, b.xmin - a.xmax));
+        double dy = Math.max(0.0, Math.max(a.ymin - b.ymax, b.ymin - a.ymax));
+        return dx * dx + dy * dy <= radiusSquared;
+    }
+
+    // is every point of a within the radius of every point of b, going by their bounding boxes?
+    private static boolean areWithin(Node a, Node b, double radiusSquared) {
+        double dx = Math.max(a.xmax - b.xmin, b.xmax - a.xmin);
+        double dy = Math.max(a.ymax - b.ymin, b.ymax - a.ymin);
+        return dx * dx + dy * dy <= radiusSquared;
     }
 
     // a nearest neighbor in the set to point p; null if the set is empty
     public Point2D nearest(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
 
-        return nearest(root, new RectHV(0, 0, 1, 1), null, p);
+        return nearest(p.x(), p.y());
     }
 
-    private Point2D nearest(Node node, RectHV nodeRect, Point2D closestPoint, Point2D queryPoint) {
-        if (node == null) return closestPoint;
+    // a nearest neighbor in the set to the point (x, y); null if the set is empty
+    public Point2D nearest(double x, double y) {
+        if (!Double.isFinite(x) || !Double.isFinite(y)) throw new IllegalArgumentException();
 
-        if   (closestPoint == null) closestPoint = node.p;
-        else if (node.p.distanceSquaredTo(queryPoint) < closestPoint.distanceSquaredTo(queryPoint))
-            closestPoint = node.p;
+        Node root = this.root;
+        if (size(root) == 0) return null;
 
-        closestPoint = nearestQuerySubtrees(node, nodeRect, closestPoint, queryPoint);
+        Metrics metrics = this.metrics;
+        QueryMetrics.Counter counter = metrics == null ? null : new QueryMetrics.Counter();
+        QueryMetrics.Probe probe = counter == null ? QueryMetrics.Probe.NONE : counter;
 
-        return closestPoint;
+        // subtrees are pruned against their own bounding boxes, and the closest distance so far is carried as a
+        // primitive, so a query allocates nothing (unless metrics are on)
+        Node closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root, 0);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                int depth = stack.depth();
+                if (boundsDistanceSquaredTo(node, x, y) >= closestDistance) {
+                    probe.prune();
+                    continue;
+                }
+
+                if (depth > 0) probe.descend();
+                probe.visit(depth);
+                double distance = distanceSquaredTo(node, x, y);
+                if (distance < closestDistance && !node.isDeleted) {
+                    closest = node;
+                    closestDistance = distance;
+                }
+
+                nearestQuerySubtrees(node, x, y, depth + 1, stack);
+            }
+        } finally {
+            stack.release();
+        }
+        if (counter != null) metrics.nearest.record(counter);
+        return closest.p;
     }
 
-    private Point2D nearestQuerySubtrees(Node node, RectHV nodeRect, Point2D closestPoint, Point2D queryPoint) {
-        if (node.isXOriented ? queryPoint.x() < node.p.x() : queryPoint.y() < node.p.y()) {
-            closestPoint = nearestOnLeftBottomSubTree(node, nodeRect, closestPoint, queryPoint);
-            closestPoint = nearestOnRightTopSubTree(node, nodeRect, closestPoint, queryPoint);
-        } else {
-            closestPoint = nearestOnRightTopSubTree(node, nodeRect, closestPoint, queryPoint);
-            closestPoint = nearestOnLeftBottomSubTree(node, nodeRect, closestPoint, queryPoint);
+    // A point whose distance to p is within a factor (1 + epsilon) of the nearest neighbor's. A subtree is skipped
+    // once its bounding box is no nearer than the closest distance so far divided by (1 + epsilon), which cuts the
+    // long tail of nodes an exact search visits just to confirm its answer. The result reports the factor actually
+    // achieved, from the nearest of the boxes skipped that way; epsilon 0 is an exact search.
+    public ApproximateNearest approximateNearest(Point2D p, double epsilon) {
+        if (p == null || !(epsilon >= 0) || epsilon == Double.POSITIVE_INFINITY) throw new IllegalArgumentException();
+
+        Node root = this.root;
+        double x = p.x(), y = p.y();
+        double shrink = (1 + epsilon) * (1 + epsilon);
+
+        Node closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        double skippedDistance = Double.POSITIVE_INFINITY;  // no skipped box is nearer than this
+        int visited = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            if (size(root) > 0) stack.push(root, 0);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                double boundsDistance = boundsDistanceSquaredTo(node, x, y);
+                if (boundsDistance >= closestDistance) continue;
+                if (boundsDistance * shrink >= closestDistance) {
+                    skippedDistance = Math.min(skippedDistance, boundsDistance);
+                    continue;
+                }
+
+                visited++;
+                double distance = distanceSquaredTo(node, x, y);
+                if (distance < closestDistance && !node.isDeleted) {
+                    closest = node;
+                    closestDistance = distance;
+                }
+
+                nearestQuerySubtrees(node, x, y, stack.depth() + 1, stack);
+            }
+        } finally {
+            stack.release();
         }
+        return new ApproximateNearest(closest == null ? null : closest.p, closestDistance,
+                Math.min(closestDistance, skippedDistance), visited);
+    }
+
+    // The closest point found after looking at no more than maxNodes nodes, for a hard limit on the work a query
+    // does. The search is the usual one, nearer side first, cut off when the budget runs out; the nearest bounding
+    // box it left unvisited then bounds how far off the answer can be, and the result reports that factor.
+    public ApproximateNearest nearestWithinBudget(Point2D p, int maxNodes) {
+        if (p == null || maxNodes < 1) throw new IllegalArgumentException();
+
+        Node root = this.root;
+        double x = p.x(), y = p.y();
 
-        return closestPoint;
+        Node closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        double lowerBound = Double.POSITIVE_INFINITY;
+        int visited = 0;
+        Traversal stack = Traversal.acquire();
+        try {
+            if (size(root) > 0) stack.push(root, 0);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                double boundsDistance = boundsDistanceSquaredTo(node, x, y);
+                if (boundsDistance >= closestDistance) continue;
+                if (visited == maxNodes) {
+                    lowerBound = Math.min(lowerBound, boundsDistance);
+                    continue;
+                }
+
+                visited++;
+                double distance = distanceSquaredTo(node, x, y);
+                if (distance < closestDistance && !node.isDeleted) {
+                    closest = node;
+                    closestDistance = distance;
+                }
+
+                nearestQuerySubtrees(node, x, y, stack.depth() + 1, stack);
+            }
+        } finally {
+            stack.release();
+        }
+        return new ApproximateNearest(closest == null ? null : closest.p, closestDistance,
+                Math.min(closestDistance, lowerBound), visited);
     }
 
-    private Point2D nearestOnLeftBottomSubTree(Node node, RectHV nodeRect, Point2D closestPoint, Point2D queryPoint) {
-        RectHV leftBottomLimitRectangle = getLeftBottomLimitRectangle(node, nodeRect);
-        if (leftBottomLimitRectangle.distanceSquaredTo(queryPoint) < closestPoint.distanceSquaredTo(queryPoint)) {
-            closestPoint = nearest(node.lb, leftBottomLimitRectangle, closestPoint, queryPoint);
+    // the k nearest neighbors in the set to point p, closest first; fewer than k if the set is smaller
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        if (p == null || k < 0) throw new IllegalArgumentException();
+
+        Stack<Point2D> nearestPoints = new Stack<>();
+        Node root = this.root;
+        if (size(root) == 0 || k == 0) return nearestPoints;
+
+        double x = p.x(), y = p.y();
+        NearestHeap closest = new NearestHeap(k);
+        Traversal stack = Traversal.acquire();
+        try {
+            stack.push(root, 0);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (boundsDistanceSquaredTo(node, x, y) >= closest.maxDistance()) continue;
+
+                if (!node.isDeleted) closest.offer(node, distanceSquaredTo(node, x, y));
+                nearestQuerySubtrees(node, x, y, stack.depth() + 1, stack);
+            }
+        } finally {
+            stack.release();
+        }
+
+        // the heap hands out the farthest point first, so the stack ends up ordered closest first
+        while (!closest.isEmpty()) nearestPoints.push(closest.pop().p);
+        return nearestPoints;
+    }
+
+    // nearest neighbors of the points (xs[i], ys[i]), answered in parallel; entry i is null if the set is empty
+    public Point2D[] nearestAll(double[] xs, double[] ys) {
+        if (xs == null || ys == null || xs.length != ys.length) throw new IllegalArgumentException();
+
+        KdTree tree = isPersistent ? snapshot(metrics) : this;
+        Point2D[] nearestPoints = new Point2D[xs.length];
+        forEachInParallel(MortonOrder.of(xs, ys), i -> nearestPoints[i] = tree.nearest(xs[i], ys[i]));
+        return nearestPoints;
+    }
+
+    // the points inside each of the rectangles (or on their boundaries), answered in parallel
+    public List<Iterable<Point2D>> rangeAll(RectHV[] rects) {
+        if (rects == null) throw new IllegalArgumentException();
+
+        double[] xs = new double[rects.length];
+        double[] ys = new double[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            if (rects[i] == null) throw new IllegalArgumentException();
+            xs[i] = (rects[i].xmin() + rects[i].xmax()) / 2;
+            ys[i] = (rects[i].ymin() + rects[i].ymax()) / 2;
+        }
+
+        KdTree tree = isPersistent ? snapshot(metrics) : this;
+        List<Iterable<Point2D>> intersectionPoints = new ArrayList<>(Collections.nCopies(rects.length, null));
+        forEachInParallel(MortonOrder.of(xs, ys), i -> intersectionPoints.set(i, tree.range(rects[i])));
+        return intersectionPoints;
+    }
+
+    // The nearest neighbor of every point in the set other than the point itself, answered in parallel. The set is
+    // flattened first, and in the in-order layout each subtree is a contiguous run of indices, so points next to each
+    // other in the arrays are close in the plane: consecutive searches walk the same cached nodes, and each one
+    // starts from the nearer of the two points beside it, which prunes most of the tree before the first step.
+    public NearestNeighbors allNearestNeighbors() {
+        FlatKdTree flat = flatten(FlatKdTree.Layout.IN_ORDER);
+        int n = flat.size();    // the flattened points are distinct, so nodes 0..n-1 are all of them
+
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = flat.x(i);
+            ys[i] = flat.y(i);
+            order[i] = i;
+        }
+
+        int[] neighbors = new int[n];
+        double[] distances = new double[n];
+        forEachInParallel(order, i -> {
+            int candidate = i > 0 ? i - 1 : i + 1;
+            if (i > 0 && i + 1 < n && distanceSquared(xs, ys, i, i + 1) < distanceSquared(xs, ys, i, i - 1)) {
+                candidate = i + 1;
+            }
+            int neighbor = candidate < n ? flat.nearestOther(i, candidate) : -1;
+            neighbors[i] = neighbor;
+            distances[i] = neighbor < 0 ? Double.POSITIVE_INFINITY : Math.sqrt(distanceSquared(xs, ys, i, neighbor));
+        });
+        return new NearestNeighbors(xs, ys, neighbors, distances);
+    }
+
+    // a closest pair of distinct points in the set; null if it holds fewer than two points
+    public Point2D[] closestPair() {
+        NearestNeighbors nearestNeighbors = allNearestNeighbors();
+        if (nearestNeighbors.size() < 2) return null;
+
+        // the closest pair is the point with the nearest nearest neighbor, and that neighbor
+        double[] distances = nearestNeighbors.distances();
+        int closest = 0;
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] < distances[closest]) closest = i;
+        }
+        int neighbor = nearestNeighbors.neighbors()[closest];
+        return new Point2D[] { nearestNeighbors.point(closest), nearestNeighbors.point(neighbor) };
+    }
+
+    private static double distanceSquared(double[] xs, double[] ys, int i, int j) {
+        double dx = xs[i] - xs[j];
+        double dy = ys[i] - ys[j];
+        return dx * dx + dy * dy;
+    }
+
+    // Run the query for every index in order on the fork-join pool. Each task takes a contiguous run of the order,
+    // and since the order follows a Z-order curve its queries are close together and walk the same cached nodes.
+    private static void forEachInParallel(int[] order, IntConsumer query) {
+        if (order.length == 0) return;
+
+        ForkJoinPool.commonPool().invoke(new BatchTask(order, 0, order.length, query));
+    }
+
+    private static class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 10;
+
+        private final int[] order;
+        private final int lo;
+        private final int hi;
+        private final IntConsumer query;
+
+        BatchTask(int[] order, int lo, int hi, IntConsumer query) {
+            this.order = order;
+            this.lo = lo;
+            this.hi = hi;
+            this.query = query;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                for (int i = lo; i < hi; i++) query.accept(order[i]);
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BatchTask(order, lo, mid, query), new BatchTask(order, mid, hi, query));
+        }
+    }
+
+    // push the subtrees of node at the given depth so that the one on the query's side of the splitting line is
+    // searched first
+    private static void nearestQuerySubtrees(Node node, double qx, double qy, int depth, Traversal stack) {
+        if (isLeftBottomNearer(node, qx, qy)) {
+            if (size(node.rt) > 0) stack.push(node.rt, depth);
+            if (size(node.lb) > 0) stack.push(node.lb, depth);
+        } else {
+            if (size(node.lb) > 0) stack.push(node.lb, depth);
+            if (size(node.rt) > 0) stack.push(node.rt, depth);
+        }
+    }
+
+    // a bounded max-heap of the k closest nodes seen so far, keyed by their squared distance to the query
+    private static class NearestHeap {
+        private final Node[] nodes;
+        private final double[] distances;
+        private int n;
+
+        NearestHeap(int k) {
+            nodes = new Node[k];
+            distances = new double[k];
+        }
+
+        boolean isEmpty() {
+            return n == 0;
+        }
+
+        // squared distance a node has to beat to get into the heap
+        double maxDistance() {
+            return n < nodes.length ? Double.POSITIVE_INFINITY : distances[0];
         }
-        return closestPoint;
+
+        void offer(Node node, double distance) {
+            if (n < nodes.length) {
+                nodes[n] = node;
+                distances[n] = distance;
+                swim(n++);
+            } else if (distance < distances[0]) {
+                nodes[0] = node;
+                distances[0] = distance;
+                sink(0);
+            }
+        }
+
+        // remove and return the farthest node in the heap
+        Node pop() {
+            Node farthest = nodes[0];
+            exchange(0, --n);
+            nodes[n] = null;
+            sink(0);
+            return farthest;
+        }
+
+        private void swim(int i) {
+            while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+                exchange(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private void sink(int i) {
+            while (2 * i + 1 < n) {
+                int child = 2 * i + 1;
+                if (child + 1 < n && distances[child] < distances[child + 1]) child++;
+                if (distances[i] >= distances[child]) break;
+                exchange(i, child);
+                i = child;
+            }
+        }
+
+        private void exchange(int i, int j) {
+            Node node = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = node;
+
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+    }
+
+    // should the left/bottom subtree be searched before the right/top one?
+    private static boolean isLeftBottomNearer(Node node, double qx, double qy) {
+        return node.isXOriented ? qx < node.p.x() : qy < node.p.y();
+    }
+
+    // push both subtrees of node that hold live points, left/bottom on top
+    private static void pushSubtrees(Node node, Traversal stack) {
+        if (size(node.rt) > 0) stack.push(node.rt);
+        if (size(node.lb) > 0) stack.push(node.lb);
+    }
+
+    // push both subtrees of node (within the region [xmin, xmax] x [ymin, ymax]), left/bottom on top
+    private static void pushSubtrees(Node node, double xmin, double ymin, double xmax, double ymax, Traversal stack) {
+        pushRightTopSubtree(node, xmin, ymin, xmax, ymax, stack);
+        pushLeftBottomSubtree(node, xmin, ymin, xmax, ymax, stack);
+    }
+
+    private static void pushLeftBottomSubtree(Node node, double xmin, double ymin, double xmax, double ymax,
+                                              Traversal stack) {
+        if (size(node.lb) == 0) return;
+
+        if (node.isXOriented) stack.push(node.lb, xmin, ymin, node.p.x(), ymax);
+        else                  stack.push(node.lb, xmin, ymin, xmax, node.p.y());
+    }
+
+    private static void pushRightTopSubtree(Node node, double xmin, double ymin, double xmax, double ymax,
+                                            Traversal stack) {
+        if (size(node.rt) == 0) return;
+
+        if (node.isXOriented) stack.push(node.rt, node.p.x(), ymin, xmax, ymax);
+        else                  stack.push(node.rt, xmin, node.p.y(), xmax, ymax);
     }
 
-    private Point2D nearestOnRightTopSubTree(Node node, RectHV nodeRect, Point2D closestPoint, Point2D queryPoint) {
-        RectHV rightTopLimitRectangle = getRightTopLimitRectangle(node, nodeRect);
-        if (rightTopLimitRectangle.distanceSquaredTo(queryPoint) < closestPoint.distanceSquaredTo(queryPoint)) {
-            closestPoint = nearest(node.rt, rightTopLimitRectangle, closestPoint, queryPoint);
+    // An explicit stack of subtrees and their regions or depths, so that traversals never recurse and their depth is
+    // not limited by the thread's stack. Each thread keeps one and reuses it across queries; a query started from
+    // inside a visitor, while that one is busy, gets a fresh stack instead.
+    private static final class Traversal {
+        private static final ThreadLocal<Traversal> CACHED = ThreadLocal.withInitial(Traversal::new);
+
+        private Node[] nodes = new Node[64];
+        private double[] regions = new double[4 * 64];
+        private int[] depths = new int[64];
+        private int n;
+        private boolean inUse;
+
+        static Traversal acquire() {
+            Traversal traversal = CACHED.get();
+            if (traversal.inUse) traversal = new Traversal();
+
+            traversal.inUse = true;
+            return traversal;
+        }
+
+        // drop any references left behind by a search that stopped early
+        void release() {
+            while (n > 0) nodes[--n] = null;
+            inUse = false;
+        }
+
+        boolean isEmpty() {
+            return n == 0;
+        }
+
+        int size() {
+            return n;
+        }
+
+        void push(Node node) {
+            if (n == nodes.length) grow();
+            nodes[n++] = node;
+        }
+
+        void push(Node node, int depth) {
+            if (n == nodes.length) grow();
+            depths[n] = depth;
+            nodes[n++] = node;
+        }
+
+        void push(Node node, double xmin, double ymin, double xmax, double ymax) {
+            if (n == nodes.length) grow();
+            regions[4 * n]     = xmin;
+            regions[4 * n + 1] = ymin;
+            regions[4 * n + 2] = xmax;
+            regions[4 * n + 3] = ymax;
+            nodes[n++] = node;
+        }
+
+        // remove the top node; the region or depth it was pushed with stays readable through xmin() .. ymax() or
+        // depth() until the next push
+        Node pop() {
+            Node node = nodes[--n];
+            nodes[n] = null;
+            return node;
+        }
+
+        double xmin() { return regions[4 * n]; }
+        double ymin() { return regions[4 * n + 1]; }
+        double xmax() { return regions[4 * n + 2]; }
+        double ymax() { return regions[4 * n + 3]; }
+        int depth() { return depths[n]; }
+
+        private void grow() {
+            nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+            regions = Arrays.copyOf(regions, 2 * regions.length);
+            depths = Arrays.copyOf(depths, 2 * depths.length);
         }
-        return closestPoint;
     }
 
-    private RectHV getLeftBottomLimitRectangle(Node node, RectHV limitRectangle) {
-        return node.isXOriented ?
-                new RectHV(limitRectangle.xmin(), limitRectangle.ymin(), node.p.x(), limitRectangle.ymax()) :
-                new RectHV(limitRectangle.xmin(), limitRectangle.ymin(), limitRectangle.xmax(), node.p.y());
+    private static double distanceSquaredTo(Node node, double qx, double qy) {
+        double dx = node.p.x() - qx;
+        double dy = node.p.y() - qy;
+        return dx * dx + dy * dy;
     }
 
-    private RectHV getRightTopLimitRectangle(Node node, RectHV limitRectangle) {
-        return node.isXOriented ?
-                new RectHV(node.p.x(), limitRectangle.ymin(), limitRectangle.xmax(), limitRectangle.ymax()) :
-                new RectHV(limitRectangle.xmin(), node.p.y(), limitRectangle.xmax(), limitRectangle.ymax());
+    // squared distance from (qx, qy) to the bounding box of the subtree rooted at node
+    private static double boundsDistanceSquaredTo(Node node, double qx, double qy) {
+        return Rectangles.distanceSquaredTo(node.xmin, node.ymin, node.xmax, node.ymax, qx, qy);
     }
 
     // unit testing of the methods (optional)
-    public static void main(String[] args) {
-        KdTree tree = new KdTree();
+    public static void main(String[] args) throws IOException {
 
         // create initial tree from file
 
-        In in = new In(args[0]);
-        while (in.hasNextLine()) {
-            double x = in.readDouble();
-            double y = in.readDouble();
-            tree.insert(new Point2D(x, y));
-        }
+        PointFile points = PointFile.read(args[0]);
+        KdTree tree = new KdTree(points.xs(), points.ys());
 
         // Drawing
 
-        StdDraw.setXscale(-0.1, 1.1);
-        StdDraw.setYscale(-0.1, 1.1);
+        RectHV bounds = tree.isEmpty() ? new RectHV(0, 0, 1, 1) : tree.bounds();
+        double xMargin = 0.1 * Math.max(bounds.width(), Double.MIN_NORMAL);
+        double yMargin = 0.1 * Math.max(bounds.height(), Double.MIN_NORMAL);
+        StdDraw.setXscale(bounds.xmin() - xMargin, bounds.xmax() + xMargin);
+        StdDraw.setYscale(bounds.ymin() - yMargin, bounds.ymax() + yMargin);
 
         tree.draw();
     }
@@ -0,0 +1,38 @@
+package com.ivantchernev.algorithms;
+
+// management interface of a KdTree registered with KdTree.registerMBean; the shape attributes walk the whole tree
+// every time they are read
+public interface KdTreeMXBean {
+
+    int getSize();
+
+    int getHeight();
+
+    int[] getDepthHistogram();
+
+    double[] getBalanceFactors();
+
+    boolean isMetricsEnabled();
+
+    void setMetricsEnabled(boolean enabled);
+
+    long getNearestQueries();
+
+    double getNearestMeanNodesVisited();
+
+    long getNearestMaxNodesVisited();
+
+    double getNearestPruningRatio();
+
+    long getNearestMaxDepth();
+
+    long getRangeQueries();
+
+    double getRangeMeanNodesVisited();
+
+    long getRangeMaxNodesVisited();
+
+    double getRangePruningRatio();
+
+    long getRangeMaxDepth();
+}
@@ -0,0 +1,135 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// A read-only 2d-tree answering queries straight from a file written by KdTree.save, memory-mapped so that opening
+// it costs nothing and processes reading the same file share the OS page cache. Everything is little-endian:
+//
+//   header  int magic, int n, double xmin, double ymin, double xmax, double ymax   (bounding box of the points)
+//   node i  double x, double y, int lb, int rt                                      (child indices, NONE if absent)
+//
+// Nodes are in preorder, so the root is node 0. The root is x oriented and orientation alternates with depth.
+public class MappedKdTree extends IndexedKdTree {
+
+    static final int MAGIC = 0x4B445431;    // "KDT1"
+    static final int HEADER_BYTES = 40;
+    static final int NODE_BYTES = 24;
+
+    // the most points a file can hold: it is mapped as a single buffer, which cannot exceed Integer.MAX_VALUE bytes,
+    // and node offsets are computed in int arithmetic
+    static final int MAX_SIZE = (Integer.MAX_VALUE - HEADER_BYTES) / NODE_BYTES;
+
+    private final ByteBuffer nodes;
+    private final int size;
+    private final double xmin, ymin, xmax, ymax;
+
+    private MappedKdTree(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a KdTree snapshot");
+        }
+
+        this.size = buffer.getInt(4);
+        this.xmin = buffer.getDouble(8);
+        this.ymin = buffer.getDouble(16);
+        this.xmax = buffer.getDouble(24);
+        this.ymax = buffer.getDouble(32);
+        if (size < 0 || buffer.capacity() != HEADER_BYTES + (long) size * NODE_BYTES) {
+            throw new IllegalArgumentException("truncated KdTree snapshot");
+        }
+
+        buffer.position(HEADER_BYTES);
+        this.nodes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // map the snapshot in the named file; the mapping stays valid after the file is closed
+    public static MappedKdTree open(String filename) throws IOException {
+        if (filename == null) throw new IllegalArgumentException();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > HEADER_BYTES + (long) MAX_SIZE * NODE_BYTES) {
+                throw new IllegalArgumentException("KdTree snapshot too large to map: " + channel.size() + " bytes");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedKdTree(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return size;
+    }
+
+    // smallest rectangle holding every point in the set; null if the set is empty
+    public RectHV bounds() {
+        if (size == 0) return null;
+
+        return new RectHV(xmin, ymin, xmax, ymax);
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        return contains(p.x(), p.y());
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        Stack<Point2D> intersectionPoints = new Stack<>();
+        range(rect, intersectionPoints);
+        return intersectionPoints;
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+        if (size == 0) return null;
+
+        // every point lies in the bounding box from the header, so it is the root's region
+        int closest = nearest(xmin, ymin, xmax, ymax, 0, Double.POSITIVE_INFINITY, NONE, p.x(), p.y());
+        return new Point2D(x(closest), y(closest));
+    }
+
+    // nodes are in preorder, so the root is node 0
+    @Override
+    int root() {
+        return size == 0 ? NONE : 0;
+    }
+
+    // absolute reads only, so any number of threads can query the same mapping
+    @Override
+    double x(int node) {
+        return nodes.getDouble(node * NODE_BYTES);
+    }
+
+    @Override
+    double y(int node) {
+        return nodes.getDouble(node * NODE_BYTES + 8);
+    }
+
+    @Override
+    int lb(int node) {
+        return nodes.getInt(node * NODE_BYTES + 16);
+    }
+
+    @Override
+    int rt(int node) {
+        return nodes.getInt(node * NODE_BYTES + 20);
+    }
+}
@@ -0,0 +1,153 @@
+package com.ivantchernev.algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// median partitioning of parallel coordinate arrays, and the balanced build on top of it, shared by the tree builders
+final class MedianPartition {
+
+    // ranges smaller than this are built on one thread
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private MedianPartition() { }
+
+    // makes a tree node for the split point xs[split], ys[split] out of its subtrees, which are null if empty
+    interface NodeFactory<T> {
+        T node(int split, boolean isXOriented, T lb, T rt);
+    }
+
+    // Build a balanced tree of xs[lo..hi], ys[lo..hi] whose root has the given orientation and return its root;
+    // null if the range is empty. Each range is split at its median, copies of the split point are dropped and the
+    // two halves are built before the factory joins them into a node. Large ranges build their halves as separate
+    // tasks on the common pool; small builds, such as BufferedKdTree's flushes and merges on the writer's insert
+    // path, stay on the calling thread rather than paying for a hand-off to the shared pool.
+    static <T> T build(double[] xs, double[] ys, int lo, int hi, boolean isXOriented, NodeFactory<T> factory) {
+        BuildTask<T> task = new BuildTask<>(xs, ys, lo, hi, isXOriented, factory);
+        if (hi - lo < SEQUENTIAL_THRESHOLD) return task.compute();
+        return ForkJoinPool.commonPool().invoke(task);
+    }
+
+    // splits xs[lo..hi], ys[lo..hi] at the median and builds the two halves as separate tasks
+    private static class BuildTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] xs;
+        private final double[] ys;
+        private final int lo;
+        private final int hi;
+        private final boolean isXOriented;
+        private final NodeFactory<T> factory;
+
+        BuildTask(double[] xs, double[] ys, int lo, int hi, boolean isXOriented, NodeFactory<T> factory) {
+            this.xs = xs;
+            this.ys = ys;
+            this.lo = lo;
+            this.hi = hi;
+            this.isXOriented = isXOriented;
+            this.factory = factory;
+        }
+
+        @Override
+        protected T compute() {
+            if (hi - lo < SEQUENTIAL_THRESHOLD) return buildSequentially(xs, ys, lo, hi, isXOriented, factory);
+
+            int split = split(xs, ys, lo, hi, isXOriented);
+            int end = removeCopies(xs, ys, split, hi, isXOriented);
+
+            BuildTask<T> rightTop = new BuildTask<>(xs, ys, split + 1, end, !isXOriented, factory);
+            rightTop.fork();
+
+            T lb = new BuildTask<>(xs, ys, lo, split - 1, !isXOriented, factory).compute();
+            return factory.node(split, isXOriented, lb, rightTop.join());
+        }
+    }
+
+    private static <T> T buildSequentially(double[] xs, double[] ys, int lo, int hi, boolean isXOriented,
+                                           NodeFactory<T> factory) {
+        if (lo > hi) return null;
+
+        int split = split(xs, ys, lo, hi, isXOriented);
+        hi = removeCopies(xs, ys, split, hi, isXOriented);
+
+        T lb = buildSequentially(xs, ys, lo, split - 1, !isXOriented, factory);
+        T rt = buildSequentially(xs, ys, split + 1, hi, !isXOriented, factory);
+        return factory.node(split, isXOriented, lb, rt);
+    }
+
+    // rearrange xs[lo..hi] and ys[lo..hi] around their median on the given axis and return the index
+    // of the split point: everything before it is strictly smaller on that axis and everything after it
+    // is greater or equal, which is the same left/bottom vs right/top rule KdTree.insert follows
+    static int split(double[] xs, double[] ys, int lo, int hi, boolean isXOriented) {
+        double[] keys = isXOriented ? xs : ys;
+        int target = (lo + hi) >>> 1;
+
+        while (true) {
+            double pivot = medianOfThree(keys[lo], keys[target], keys[hi]);
+
+            // three-way partition so that every key equal to the pivot ends up in one contiguous run
+            int lt = lo, i = lo, gt = hi;
+            while (i <= gt) {
+                double key = keys[i];
+                if      (key < pivot) swap(xs, ys, lt++, i++);
+                else if (key > pivot) swap(xs, ys, i, gt--);
+                else                  i++;
+            }
+
+            if      (target < lt) hi = lt - 1;
+            else if (target > gt) lo = gt + 1;
+            else                  return lt;
+        }
+    }
+
+    // move exact copies of the split point to the end of xs[split..hi] and return the new end of the range;
+    // copies can only sit in the run of equal keys directly after the split point
+    static int removeCopies(double[] xs, double[] ys, int split, int hi, boolean isXOriented) {
+        double[] keys = isXOriented ? xs : ys;
+        double key = keys[split];
+
+        int gt = split;
+        while (gt < hi && keys[gt + 1] == key) gt++;
+
+        int i = split + 1;
+        while (i <= gt) {
+            if (xs[i] == xs[split] && ys[i] == ys[split]) {
+                swap(xs, ys, i, gt);
+                swap(xs, ys, gt--, hi--);
+            } else {
+                i++;
+            }
+        }
+        return hi;
+    }
+
+    // reject coordinates that Point2D would refuse and fold -0.0 into 0.0 the way Point2D does
+    static void checkCoordinates(double[] xs, double[] ys) {
+        if (xs == null || ys == null || xs.length != ys.length) throw new IllegalArgumentException();
+
+        for (int i = 0; i < xs.length; i++) {
+            if (!Double.isFinite(xs[i]) || !Double.isFinite(ys[i])) throw new IllegalArgumentException();
+            if (xs[i] == 0.0) xs[i] = 0.0;
+            if (ys[i] == 0.0) ys[i] = 0.0;
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (a < b) {
+            if (b < c) return b;
+            return a < c ? c : a;
+        } else {
+            if (a < c) return a;
+            return b < c ? c : b;
+        }
+    }
+
+    private static void swap(double[] xs, double[] ys, int i, int j) {
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+}
@@ -0,0 +1,52 @@
+package com.ivantchernev.algorithms;
+
+import java.util.Arrays;
+
+// orders points along a Z-order (Morton) curve, so that points close together in the order are close in the plane
+final class MortonOrder {
+
+    private static final int BITS = 16;     // grid resolution per axis
+    private static final double CELLS = (1 << BITS) - 1;
+
+    private MortonOrder() { }
+
+    // the indices of the points (xs[i], ys[i]) sorted by their position on the curve over the points' bounding box
+    static int[] of(double[] xs, double[] ys) {
+        int n = xs.length;
+        if (n == 0) return new int[0];
+
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            xmin = Math.min(xmin, xs[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+        double xscale = xmax > xmin ? CELLS / (xmax - xmin) : 0;
+        double yscale = ymax > ymin ? CELLS / (ymax - ymin) : 0;
+
+        // the 32 bit code goes in the high half and the index in the low half, so one primitive sort does it all
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int cx = (int) ((xs[i] - xmin) * xscale);
+            int cy = (int) ((ys[i] - ymin) * yscale);
+            keys[i] = (interleave(cx) | interleave(cy) << 1) << 32 | i;
+        }
+        Arrays.parallelSort(keys);
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    // spread the low 16 bits of v out to the even bit positions
+    private static long interleave(int v) {
+        long x = v & 0xFFFF;
+        x = (x | x << 8) & 0x00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0FL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+}
@@ -1,7 +1,7 @@
 /******************************************************************************
  *  Compilation:  javac NearestNeighborVisualizer.java
  *  Execution:    java NearestNeighborVisualizer input.txt
- *  Dependencies: PointSET.java KdTree.java
+ *  Dependencies: PointSET.java KdTree.java PointFile.java
  *
  *  Read points from a file (specified as a command-line argument) and
  *  draw to standard draw. Highlight the closest point to the mouse.
@@ -13,26 +13,21 @@
 
 package com.ivantchernev.algorithms;
 
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.StdDraw;
 
+import java.io.IOException;
+
 public class NearestNeighborVisualizer {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         // initialize the two data structures with point from file
         String filename = args[0];
-        In in = new In(filename);
-        PointSET brute = new PointSET();
-        KdTree kdtree = new KdTree();
-        while (!in.isEmpty()) {
-            double x = in.readDouble();
-            double y = in.readDouble();
-            Point2D p = new Point2D(x, y);
-            kdtree.insert(p);
-            brute.insert(p);
-        }
+        PointFile points = PointFile.read(filename);
+        double[] xs = points.xs(), ys = points.ys();
+        PointSET brute = new PointSET(xs, ys);
+        KdTree kdtree = new KdTree(xs, ys);
 
         // process nearest neighbor queries
         StdDraw.enableDoubleBuffering();
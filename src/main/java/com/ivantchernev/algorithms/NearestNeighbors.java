@@ -0,0 +1,52 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+// The nearest neighbor of every point in a set, other than the point itself, as parallel primitive arrays: point i
+// is (xs()[i], ys()[i]), its nearest neighbor is point neighbors()[i] at distance distances()[i]. Points are in no
+// particular order, but close points tend to have close indices. With a single point its neighbor is -1 at distance
+// POSITIVE_INFINITY.
+public final class NearestNeighbors {
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] neighbors;
+    private final double[] distances;
+
+    NearestNeighbors(double[] xs, double[] ys, int[] neighbors, double[] distances) {
+        this.xs = xs;
+        this.ys = ys;
+        this.neighbors = neighbors;
+        this.distances = distances;
+    }
+
+    // number of points
+    public int size() {
+        return xs.length;
+    }
+
+    // the x-coordinates of the points
+    public double[] xs() {
+        return xs;
+    }
+
+    // the y-coordinates of the points
+    public double[] ys() {
+        return ys;
+    }
+
+    // index of the nearest neighbor of each point
+    public int[] neighbors() {
+        return neighbors;
+    }
+
+    // distance from each point to its nearest neighbor
+    public double[] distances() {
+        return distances;
+    }
+
+    // point i
+    public Point2D point(int i) {
+        return new Point2D(xs[i], ys[i]);
+    }
+}
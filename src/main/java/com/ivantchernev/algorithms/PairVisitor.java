@@ -0,0 +1,11 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+// receives the pairs of points found by a join one at a time
+@FunctionalInterface
+public interface PairVisitor {
+
+    // handle the pair of p from the first set and q from the second; return false to stop the join
+    boolean visit(Point2D p, Point2D q);
+}
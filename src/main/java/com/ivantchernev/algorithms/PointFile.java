@@ -0,0 +1,226 @@
+package com.ivantchernev.algorithms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// The points of a text file of whitespace separated "x y" pairs, parsed into primitive coordinate arrays.
+// The file is memory-mapped in chunks that are parsed in parallel, each starting and ending on whitespace,
+// and numbers are read straight from the mapped bytes instead of through a Scanner like algs4 In does.
+public final class PointFile {
+
+    private static final int CHUNK_SIZE = 1 << 22;
+
+    // 10^0 .. 10^22 are exactly representable, which is what makes the fast path in parse correctly rounded
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final double[] xs;
+    private final double[] ys;
+
+    private PointFile(double[] xs, double[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    // read the points in the named file
+    public static PointFile read(String filename) throws IOException {
+        return read(filename, CHUNK_SIZE);
+    }
+
+    static PointFile read(String filename, int chunkSize) throws IOException {
+        if (filename == null) throw new IllegalArgumentException();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, chunkSize);
+            Chunk[] chunks = new Chunk[bounds.length - 1];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]));
+            }
+            ForkJoinPool.commonPool().invoke(new ParseTask(chunks, 0, chunks.length));
+
+            int tokens = 0;
+            for (Chunk chunk : chunks) tokens += chunk.n;
+            if (tokens % 2 != 0) throw new IllegalArgumentException("odd number of coordinates in " + filename);
+
+            double[] xs = new double[tokens / 2];
+            double[] ys = new double[tokens / 2];
+            int token = 0;
+            for (Chunk chunk : chunks) {
+                for (int i = 0; i < chunk.n; i++, token++) {
+                    if (token % 2 == 0) xs[token / 2] = chunk.tokens[i];
+                    else                ys[token / 2] = chunk.tokens[i];
+                }
+            }
+            return new PointFile(xs, ys);
+        }
+    }
+
+    // number of points in the file
+    public int size() {
+        return xs.length;
+    }
+
+    // the x-coordinates of the points, in file order
+    public double[] xs() {
+        return xs;
+    }
+
+    // the y-coordinates of the points, in file order
+    public double[] ys() {
+        return ys;
+    }
+
+    // Split the file into ranges of roughly chunkSize bytes. Every range but the last ends just after a whitespace
+    // byte, so no number is cut in two.
+    private static long[] chunkBounds(FileChannel channel, int chunkSize) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[(int) (size / chunkSize) + 2];
+        int n = 1;
+
+        ByteBuffer probe = ByteBuffer.allocate(64);
+        long start = 0;
+        while (size - start > chunkSize) {
+            long end = start + chunkSize;
+            boolean found = false;
+            while (!found && end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                for (int i = 0; i < read; i++) {
+                    if (isWhitespace(probe.get(i))) {
+                        end += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) end += read;
+            }
+            bounds[n++] = end;
+            start = end;
+        }
+        if (start < size) bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    private static class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int lo;
+        private final int hi;
+
+        ParseTask(Chunk[] chunks, int lo, int hi) {
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                if (hi > lo) chunks[lo].parse();
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ParseTask(chunks, lo, mid), new ParseTask(chunks, mid, hi));
+        }
+    }
+
+    // the numbers in one mapped range of the file
+    private static class Chunk {
+        private final MappedByteBuffer buffer;
+        private double[] tokens;
+        private int n;
+
+        Chunk(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.tokens = new double[Math.max(16, buffer.limit() / 8)];
+        }
+
+        void parse() {
+            int limit = buffer.limit();
+            int i = 0;
+            while (true) {
+                while (i < limit && isWhitespace(buffer.get(i))) i++;
+                if (i == limit) return;
+
+                if (n == tokens.length) tokens = Arrays.copyOf(tokens, 2 * n);
+                i = parseNumber(i, limit);
+            }
+        }
+
+        // Parse the number starting at start into tokens[n++] and return the index just after it. Plain decimals
+        // whose digits fit in 53 bits (every coordinate in our data) take the fast path: an exact integer divided
+        // by an exact power of ten rounds once, so the result is the same double Double.parseDouble would give.
+        private int parseNumber(int start, int limit) {
+            int i = start;
+            boolean isNegative = false;
+            byte b = buffer.get(i);
+            if (b == '-' || b == '+') {
+                isNegative = b == '-';
+                i++;
+            }
+
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean isExact = true;
+            for (; i < limit && isDigit(b = buffer.get(i)); i++) {
+                if (mantissa < MAX_EXACT_MANTISSA) mantissa = 10 * mantissa + (b - '0');
+                else isExact = false;
+                digits++;
+            }
+            if (i < limit && buffer.get(i) == '.') {
+                for (i++; i < limit && isDigit(b = buffer.get(i)); i++) {
+                    if (mantissa < MAX_EXACT_MANTISSA) {
+                        mantissa = 10 * mantissa + (b - '0');
+                        exponent--;
+                    }
+                    else if (b != '0') isExact = false;
+                    digits++;
+                }
+            }
+
+            if (digits > 0 && isExact && mantissa <= MAX_EXACT_MANTISSA
+                    && -exponent < POWERS_OF_TEN.length && (i == limit || isWhitespace(buffer.get(i)))) {
+                double value = exponent == 0 ? mantissa : mantissa / POWERS_OF_TEN[-exponent];
+                tokens[n++] = isNegative ? -value : value;
+                return i;
+            }
+            return parseSlowly(start, limit);
+        }
+
+        // exponents, very long mantissas and anything else Double.parseDouble accepts
+        private int parseSlowly(int start, int limit) {
+            int end = start;
+            while (end < limit && !isWhitespace(buffer.get(end))) end++;
+
+            char[] token = new char[end - start];
+            for (int i = start; i < end; i++) token[i - start] = (char) (buffer.get(i) & 0xFF);
+            try {
+                tokens[n++] = Double.parseDouble(new String(token));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + new String(token), e);
+            }
+            return end;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
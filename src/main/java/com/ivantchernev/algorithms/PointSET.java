@@ -1,20 +1,62 @@
 package com.ivantchernev.algorithms;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.TreeSet;
 
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.Stack;
 
+// The reference set KdTree is checked against. The TreeSet is the source of truth and answers contains, size, draw
+// and k-nearest; range and nearest run on a copy of its points in primitive arrays sorted by x: range binary-searches
+// the x-interval of the rectangle and nearest sweeps outwards from the query's x until the x-gap alone exceeds the
+// best distance. An update only marks a deleted point removed in the arrays or appends a new one to a short pending
+// buffer, which the queries scan linearly; once the changes outnumber a few times sqrt(n) they are merged into fresh
+// sorted arrays, so updates cost O(sqrt n) amortized however they interleave with queries.
+//
+// Queries never modify the set, so any number of threads may query it at once, though not while it is updated. A
+// range search or iterator keeps to the arrays it started with, so a visitor may update the set as it goes: points
+// inserted meanwhile are not reported, and points deleted before the scan reaches them are skipped.
 public class PointSET {
 
+    private static final Comparator<Point2D> X_THEN_Y_ORDER = Point2D.X_ORDER.thenComparing(Point2D.Y_ORDER);
+    private static final int MIN_PENDING = 64;  // changes always allowed to wait before a merge
+    private static final int PENDING_FACTOR = 4;    // changes allowed to wait, in multiples of sqrt(n)
+
     private final TreeSet<Point2D> treeSet;
 
+    private double[] xs = new double[0];    // the points as of the last merge, sorted by x, then by y
+    private double[] ys = new double[0];
+    private boolean[] isRemoved = new boolean[0];   // deleted since the last merge?
+    private int removed;                    // number of entries marked removed
+    private Point2D[] pending = new Point2D[MIN_PENDING];  // inserted since the last merge, null where deleted again
+    private int pendingCount;
+
     // construct an empty set of points
     public PointSET() {
         treeSet = new TreeSet<>();
     }
 
+    // construct a set of the points (xs[i], ys[i]), sorting them once (duplicates are only added once)
+    public PointSET(double[] xs, double[] ys) {
+        this();
+        if (xs == null || ys == null || xs.length != ys.length) throw new IllegalArgumentException();
+
+        xs = xs.clone();
+        ys = ys.clone();
+        MedianPartition.checkCoordinates(xs, ys);
+
+        pending = new Point2D[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            Point2D p = new Point2D(xs[i], ys[i]);
+            if (treeSet.add(p)) pending[pendingCount++] = p;
+        }
+        merge();
+    }
+
     // is the set empty?
     public boolean isEmpty() {
         return treeSet.isEmpty();
@@ -29,7 +71,78 @@ public class PointSET {
     public void insert(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
 
-        treeSet.add(p);
+        if (!treeSet.add(p)) return;
+
+        // a query scanning the old buffer only reads up to the count it started with, so the append cannot reach it
+        if (pendingCount == pending.length) pending = Arrays.copyOf(pending, 2 * pendingCount);
+        pending[pendingCount++] = p;
+        mergeIfDue();
+    }
+
+    // remove the point from the set (if it is in the set)
+    public void delete(Point2D p) {
+        if (p == null) throw new IllegalArgumentException();
+
+        if (!treeSet.remove(p)) return;
+
+        double x = p.x(), y = p.y();
+        int i = slotOf(xs, ys, x, y);
+        if (i < xs.length && xs[i] == x && ys[i] == y && !isRemoved[i]) {
+            isRemoved[i] = true;
+            removed++;
+        } else {
+            for (int j = 0; j < pendingCount; j++) {
+                if (pending[j] != null && pending[j].x() == x && pending[j].y() == y) {
+                    pending[j] = null;
+                    break;
+                }
+            }
+        }
+        mergeIfDue();
+    }
+
+    // merge the changes into the sorted arrays once they outnumber a few times sqrt(n), so each O(n) merge is paid
+    // for by as many updates, while queries scan no more than that many pending points
+    private void mergeIfDue() {
+        if (removed + pendingCount > Math.max(MIN_PENDING, PENDING_FACTOR * Math.sqrt(treeSet.size()))) merge();
+    }
+
+    // Sort the pending points and merge them with the points not removed into new arrays. The old arrays are left
+    // as they are for any query still scanning them.
+    private void merge() {
+        Point2D[] inserted = new Point2D[pendingCount];
+        int m = 0;
+        for (int j = 0; j < pendingCount; j++) {
+            if (pending[j] != null) inserted[m++] = pending[j];
+        }
+        Arrays.sort(inserted, 0, m, X_THEN_Y_ORDER);
+
+        int n = xs.length - removed + m;
+        double[] mergedXs = new double[n];
+        double[] mergedYs = new double[n];
+        int i = 0, j = 0;
+        for (int k = 0; k < n; k++) {
+            while (i < xs.length && isRemoved[i]) i++;
+
+            boolean takeSorted = j == m || (i < xs.length
+                    && (xs[i] < inserted[j].x() || (xs[i] == inserted[j].x() && ys[i] < inserted[j].y())));
+            if (takeSorted) {
+                mergedXs[k] = xs[i];
+                mergedYs[k] = ys[i];
+                i++;
+            } else {
+                mergedXs[k] = inserted[j].x();
+                mergedYs[k] = inserted[j].y();
+                j++;
+            }
+        }
+
+        xs = mergedXs;
+        ys = mergedYs;
+        isRemoved = new boolean[n];
+        removed = 0;
+        pending = new Point2D[MIN_PENDING];
+        pendingCount = 0;
     }
 
     // does the set contain point p?
@@ -51,25 +164,146 @@ public class PointSET {
         if (rect == null) throw new IllegalArgumentException();
 
         Stack<Point2D> stack = new Stack<>();
-        for (Point2D p: treeSet) {
-            if (rect.contains(p)) stack.push(p);
-        }
+        range(rect, p -> {
+            stack.push(p);
+            return true;
+        });
         return stack;
     }
 
+    // hand every point inside the rectangle (or on the boundary) to the visitor until it returns false;
+    // returns true if the search ran to completion
+    public boolean range(RectHV rect, PointVisitor visitor) {
+        if (rect == null || visitor == null) throw new IllegalArgumentException();
+
+        double[] xs = this.xs, ys = this.ys;
+        boolean[] isRemoved = this.isRemoved;
+        Point2D[] pending = this.pending;
+        int pendingCount = this.pendingCount;
+
+        for (int i = firstAtOrRightOf(xs, rect.xmin()); i < xs.length && xs[i] <= rect.xmax(); i++) {
+            if (!isRemoved[i] && ys[i] >= rect.ymin() && ys[i] <= rect.ymax()
+                    && !visitor.visit(new Point2D(xs[i], ys[i]))) return false;
+        }
+        for (int j = 0; j < pendingCount; j++) {
+            Point2D p = pending[j];
+            if (p != null && rect.contains(p) && !visitor.visit(p)) return false;
+        }
+        return true;
+    }
+
+    // iterator over the points inside the rectangle (or on the boundary) that scans the set as it is advanced
+    public Iterator<Point2D> rangeIterator(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException();
+
+        double[] xs = this.xs, ys = this.ys;
+        boolean[] isRemoved = this.isRemoved;
+        Point2D[] pending = this.pending;
+        int pendingCount = this.pendingCount;
+        return new Iterator<Point2D>() {
+            private int i = firstAtOrRightOf(xs, rect.xmin());    // next sorted point to look at
+            private int j = 0;                                      // next pending point to look at
+            private Point2D next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Point2D next() {
+                if (next == null) throw new NoSuchElementException();
+
+                Point2D p = next;
+                next = advance();
+                return p;
+            }
+
+            private Point2D advance() {
+                while (i < xs.length && xs[i] <= rect.xmax()) {
+                    int k = i++;
+                    if (!isRemoved[k] && ys[k] >= rect.ymin() && ys[k] <= rect.ymax()) return new Point2D(xs[k], ys[k]);
+                }
+                while (j < pendingCount) {
+                    Point2D p = pending[j++];
+                    if (p != null && rect.contains(p)) return p;
+                }
+                return null;
+            }
+        };
+    }
+
     // a nearest neighbor in the set to point p; null if the set is empty
     public Point2D nearest(Point2D p) {
         if (p == null) throw new IllegalArgumentException();
 
-        Point2D nearestPoint = null;
+        double[] xs = this.xs, ys = this.ys;
+        boolean[] isRemoved = this.isRemoved;
+        Point2D[] pending = this.pending;
+        int pendingCount = this.pendingCount;
+        double qx = p.x(), qy = p.y();
+        int closest = -1;
         double closestDistanceSquared = Double.POSITIVE_INFINITY;
-        for (Point2D storedPoint: treeSet) {
-            if (p.distanceSquaredTo(storedPoint) < closestDistanceSquared) {
-                nearestPoint = storedPoint;
-                closestDistanceSquared = p.distanceSquaredTo(storedPoint);
+
+        // always step to whichever unvisited neighbour in x order is nearer in x, so once its x-gap alone is no
+        // better than the closest distance, so is every point not yet visited
+        int left = firstAtOrRightOf(xs, qx) - 1, right = left + 1;
+        while (left >= 0 || right < xs.length) {
+            boolean isRightNearer = left < 0 || (right < xs.length && xs[right] - qx <= qx - xs[left]);
+            int i = isRightNearer ? right++ : left--;
+
+            double dx = xs[i] - qx, dy = ys[i] - qy;
+            if (dx * dx >= closestDistanceSquared) break;
+            if (dx * dx + dy * dy < closestDistanceSquared && !isRemoved[i]) {
+                closest = i;
+                closestDistanceSquared = dx * dx + dy * dy;
             }
         }
+        Point2D nearest = closest < 0 ? null : new Point2D(xs[closest], ys[closest]);
 
-        return nearestPoint;
+        for (int j = 0; j < pendingCount; j++) {
+            Point2D candidate = pending[j];
+            if (candidate != null && candidate.distanceSquaredTo(p) < closestDistanceSquared) {
+                nearest = candidate;
+                closestDistanceSquared = candidate.distanceSquaredTo(p);
+            }
+        }
+        return nearest;
+    }
+
+    // index of the first point whose x is at least x (xs.length if there is none)
+    private static int firstAtOrRightOf(double[] xs, double x) {
+        int lo = 0, hi = xs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (xs[mid] < x) lo = mid + 1;
+            else             hi = mid;
+        }
+        return lo;
+    }
+
+    // index of the first point that is not before (x, y) in x-then-y order (xs.length if there is none)
+    private static int slotOf(double[] xs, double[] ys, double x, double y) {
+        int lo = 0, hi = xs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (xs[mid] < x || (xs[mid] == x && ys[mid] < y)) lo = mid + 1;
+            else                                               hi = mid;
+        }
+        return lo;
+    }
+
+    // the k nearest neighbors in the set to point p, closest first; fewer than k if the set is smaller
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        if (p == null || k < 0) throw new IllegalArgumentException();
+
+        Point2D[] points = treeSet.toArray(new Point2D[0]);
+        Arrays.sort(points, p.distanceToOrder());
+
+        Stack<Point2D> stack = new Stack<>();
+        for (int i = Math.min(k, points.length) - 1; i >= 0; i--) {
+            stack.push(points[i]);
+        }
+        return stack;
     }
 }
@@ -0,0 +1,11 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+
+// receives the points found by a search one at a time
+@FunctionalInterface
+public interface PointVisitor {
+
+    // handle point p; return false to stop the search
+    boolean visit(Point2D p);
+}
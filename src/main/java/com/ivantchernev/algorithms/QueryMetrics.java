@@ -0,0 +1,134 @@
+package com.ivantchernev.algorithms;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// An immutable snapshot of how much of the tree a kind of query has been walking. A subtree reached during a query
+// is either pruned (it cannot hold an answer, so it is skipped) or descended into. The root is neither: a query
+// visits 1 + descended nodes, unless the whole tree is ruled out at once, which counts as one pruned subtree and no
+// visits. Depth counts edges from the root, which sits at depth 0.
+public final class QueryMetrics {
+
+    private final long queries;
+    private final long nodesVisited;
+    private final long subtreesPruned;
+    private final long subtreesDescended;
+    private final long maxNodesVisited;
+    private final long maxDepth;
+
+    private QueryMetrics(long queries, long nodesVisited, long subtreesPruned, long subtreesDescended,
+                         long maxNodesVisited, long maxDepth) {
+        this.queries = queries;
+        this.nodesVisited = nodesVisited;
+        this.subtreesPruned = subtreesPruned;
+        this.subtreesDescended = subtreesDescended;
+        this.maxNodesVisited = maxNodesVisited;
+        this.maxDepth = maxDepth;
+    }
+
+    // number of queries recorded
+    public long queries() {
+        return queries;
+    }
+
+    // total number of nodes looked at over all queries
+    public long nodesVisited() {
+        return nodesVisited;
+    }
+
+    // total number of subtrees skipped over all queries
+    public long subtreesPruned() {
+        return subtreesPruned;
+    }
+
+    // total number of subtrees searched over all queries
+    public long subtreesDescended() {
+        return subtreesDescended;
+    }
+
+    // nodes looked at by the most expensive single query
+    public long maxNodesVisited() {
+        return maxNodesVisited;
+    }
+
+    // deepest node any query reached
+    public long maxDepth() {
+        return maxDepth;
+    }
+
+    // average number of nodes looked at per query
+    public double meanNodesVisited() {
+        return queries == 0 ? 0 : (double) nodesVisited / queries;
+    }
+
+    // fraction of the subtrees reached that were pruned instead of searched
+    public double pruningRatio() {
+        long reached = subtreesPruned + subtreesDescended;
+        return reached == 0 ? 0 : (double) subtreesPruned / reached;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d queries, %.1f nodes visited per query (max %d), %.1f%% of subtrees pruned, "
+                + "max depth %d", queries, meanNodesVisited(), maxNodesVisited, 100 * pruningRatio(), maxDepth);
+    }
+
+    // What a query reports as it walks the tree. The searches report to a probe whether or not metrics are on:
+    // NONE ignores every report, so with metrics off they cost no more than the calls, and a Counter adds them up.
+    static class Probe {
+        static final Probe NONE = new Probe();
+
+        void visit(int depth) { }
+        void prune() { }
+        void descend() { }
+    }
+
+    // the counters one query accumulates as it walks the tree
+    static final class Counter extends Probe {
+        long nodesVisited;
+        long subtreesPruned;
+        long subtreesDescended;
+        long maxDepth;
+
+        @Override
+        void visit(int depth) {
+            nodesVisited++;
+            if (depth > maxDepth) maxDepth = depth;
+        }
+
+        @Override
+        void prune() {
+            subtreesPruned++;
+        }
+
+        @Override
+        void descend() {
+            subtreesDescended++;
+        }
+    }
+
+    // running totals over many queries, which may be recorded from any number of threads at once
+    static final class Recorder {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder nodesVisited = new LongAdder();
+        private final LongAdder subtreesPruned = new LongAdder();
+        private final LongAdder subtreesDescended = new LongAdder();
+        private final LongAccumulator maxNodesVisited = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+        void record(Counter probe) {
+            queries.increment();
+            nodesVisited.add(probe.nodesVisited);
+            subtreesPruned.add(probe.subtreesPruned);
+            subtreesDescended.add(probe.subtreesDescended);
+            maxNodesVisited.accumulate(probe.nodesVisited);
+            maxDepth.accumulate(probe.maxDepth);
+        }
+
+        // the totals so far; queries finishing while this runs may be only partly included
+        QueryMetrics snapshot() {
+            return new QueryMetrics(queries.sum(), nodesVisited.sum(), subtreesPruned.sum(),
+                    subtreesDescended.sum(), maxNodesVisited.get(), maxDepth.get());
+        }
+    }
+}
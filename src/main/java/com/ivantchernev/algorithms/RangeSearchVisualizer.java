@@ -2,7 +2,7 @@
 /******************************************************************************
  *  Compilation:  javac RangeSearchVisualizer.java
  *  Execution:    java RangeSearchVisualizer input.txt
- *  Dependencies: PointSET.java KdTree.java
+ *  Dependencies: PointSET.java KdTree.java PointFile.java
  *
  *  Read points from a file (specified as a command-line arugment) and
  *  draw to standard draw. Also draw all of the points in the rectangle
@@ -15,27 +15,22 @@
 package com.ivantchernev.algorithms;
 
 
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.StdDraw;
 
+import java.io.IOException;
+
 public class RangeSearchVisualizer {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         // initialize the data structures from file
         String filename = args[0];
-        In in = new In(filename);
-        PointSET brute = new PointSET();
-        KdTree kdtree = new KdTree();
-        while (!in.isEmpty()) {
-            double x = in.readDouble();
-            double y = in.readDouble();
-            Point2D p = new Point2D(x, y);
-            kdtree.insert(p);
-            brute.insert(p);
-        }
+        PointFile points = PointFile.read(filename);
+        double[] xs = points.xs(), ys = points.ys();
+        PointSET brute = new PointSET(xs, ys);
+        KdTree kdtree = new KdTree(xs, ys);
 
         double x0 = 0.0, y0 = 0.0;      // initial endpoint of rectangle
         double x1 = 0.0, y1 = 0.0;      // current location of mouse
@@ -0,0 +1,24 @@
+package com.ivantchernev.algorithms;
+
+// point-to-rectangle distances on primitive bounds, shared by the trees that prune their searches by region
+final class Rectangles {
+
+    private Rectangles() { }
+
+    // squared distance from (qx, qy) to the rectangle [xmin, xmax] x [ymin, ymax]; 0 if the point is inside it
+    static double distanceSquaredTo(double xmin, double ymin, double xmax, double ymax, double qx, double qy) {
+        double dx = 0.0, dy = 0.0;
+        if      (qx < xmin) dx = qx - xmin;
+        else if (qx > xmax) dx = qx - xmax;
+        if      (qy < ymin) dy = qy - ymin;
+        else if (qy > ymax) dy = qy - ymax;
+        return dx * dx + dy * dy;
+    }
+
+    // squared distance from (qx, qy) to the farthest corner of the rectangle [xmin, xmax] x [ymin, ymax]
+    static double farthestDistanceSquaredTo(double xmin, double ymin, double xmax, double ymax, double qx, double qy) {
+        double dx = Math.max(qx - xmin, xmax - qx);
+        double dy = Math.max(qy - ymin, ymax - qy);
+        return dx * dx + dy * dy;
+    }
+}
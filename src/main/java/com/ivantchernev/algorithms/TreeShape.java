@@ -0,0 +1,38 @@
+package com.ivantchernev.algorithms;
+
+import java.util.Arrays;
+
+// An immutable snapshot of the shape of a 2d-tree, level by level. Depth d holds depthHistogram()[d] nodes, with the
+// root at depth 0, so the histogram has height() entries. Tombstones left by delete are counted as nodes, since
+// queries still have to walk through them.
+public final class TreeShape {
+
+    private final int[] depthHistogram;
+    private final double[] balanceFactors;
+
+    TreeShape(int[] depthHistogram, double[] balanceFactors) {
+        this.depthHistogram = depthHistogram;
+        this.balanceFactors = balanceFactors;
+    }
+
+    // number of levels in the tree (0 when empty)
+    public int height() {
+        return depthHistogram.length;
+    }
+
+    // number of nodes at each depth
+    public int[] depthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    // For each depth, the mean over its nodes of |size(lb) - size(rt)| / (size(lb) + size(rt)), in live points:
+    // 0 when every node splits its points evenly, 1 when every node sends them all one way. Leaves count as 0.
+    public double[] balanceFactors() {
+        return balanceFactors.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "height " + height() + ", nodes per depth " + Arrays.toString(depthHistogram);
+    }
+}
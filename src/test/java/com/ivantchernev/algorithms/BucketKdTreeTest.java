@@ -0,0 +1,150 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketKdTreeTest {
+
+    // construction tests
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree((Point2D[]) null));
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree(new Point2D[] { null }));
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree(new double[1], null));
+    }
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree(new double[2], new double[1]));
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree(new double[1], new double[1], 0));
+        assertThrows(IllegalArgumentException.class, () -> new BucketKdTree(new double[] { Double.NaN }, new double[1]));
+    }
+
+    // isEmpty and size tests
+
+    @Test
+    void isEmptyReturnsTrueWhenSetEmpty() {
+        BucketKdTree set = new BucketKdTree(new Point2D[0]);
+
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertFalse(set.contains(new Point2D(0, 0)));
+        assertFalse(set.range(new RectHV(0, 0, 1, 1)).iterator().hasNext());
+    }
+
+    @Test
+    void sizeOnlyCountsOneCopyOfIdenticalItems() {
+        BucketKdTree set = new BucketKdTree(new double[] { 0.3, 0.3, 0.3, 0.5 }, new double[] { 0.9, 0.9, 0.1, 0.9 }, 1);
+
+        assertFalse(set.isEmpty());
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void sizeOnlyCountsOneCopyWhenCopiesOutnumberTheBucket() {
+        double[] xs = new double[1000];
+        double[] ys = new double[1000];
+        Arrays.fill(xs, 0.25);
+        Arrays.fill(ys, 0.75);
+        xs[500] = 0.5;
+
+        BucketKdTree set = new BucketKdTree(xs, ys, 4);
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(new Point2D(0.25, 0.75)));
+        assertTrue(set.contains(new Point2D(0.5, 0.75)));
+    }
+
+    // contains tests
+
+    @Test
+    void containsFindsItemsWithIdenticalXElements() {
+        double[] xs = new double[100];
+        double[] ys = new double[100];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = 0.3;
+            ys[i] = i / 100.0;
+        }
+        BucketKdTree set = new BucketKdTree(xs, ys, 2);
+
+        for (int i = 0; i < xs.length; i++) assertTrue(set.contains(new Point2D(0.3, i / 100.0)));
+        assertFalse(set.contains(new Point2D(0.3, 0.555)));
+        assertFalse(set.contains(new Point2D(0.4, 0.5)));
+    }
+
+    // range tests
+
+    @Test
+    void rangeContainsAllValuesInRect() {
+        BucketKdTree set = new BucketKdTree(new double[] { 0, 0.25, 0.5, 0.75, 1 }, new double[] { 0, 0.25, 0.5, 0.75, 1 }, 2);
+
+        Iterable<Point2D> range = set.range(new RectHV(0.4, 0.4, 0.6, 0.6));
+
+        assertEquals(1, count(range));
+        range.forEach(point2D -> assertEquals(new Point2D(0.5, 0.5), point2D));
+        assertEquals(5, count(set.range(new RectHV(0, 0, 1, 1))));
+    }
+
+    // nearest tests
+
+    @Test
+    void nearestReturnsNullIfSetEmpty() {
+        assertNull(new BucketKdTree(new Point2D[0]).nearest(new Point2D(1, 1)));
+    }
+
+    @Test
+    void nearestWorksOutsideTheUnitSquare() {
+        BucketKdTree set = new BucketKdTree(new double[] { -500, 1200, 3 }, new double[] { 40, -7, 2500 }, 1);
+
+        assertEquals(new Point2D(1200, -7), set.nearest(new Point2D(1000, 0)));
+    }
+
+    @Test
+    void queriesMatchKdTreeForEveryBucketSize() {
+        Random random = new Random(42);
+        Point2D[] points = new Point2D[20_000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Point2D(random.nextInt(500) / 500.0, random.nextInt(500) / 500.0);
+        }
+        KdTree kdTree = new KdTree(points);
+
+        for (int bucketSize : new int[] { 1, 4, 16, 64 }) {
+            BucketKdTree bucket = new BucketKdTree(points);
+            if (bucketSize != BucketKdTree.DEFAULT_BUCKET_SIZE) {
+                double[] xs = new double[points.length];
+                double[] ys = new double[points.length];
+                for (int i = 0; i < points.length; i++) {
+                    xs[i] = points[i].x();
+                    ys[i] = points[i].y();
+                }
+                bucket = new BucketKdTree(xs, ys, bucketSize);
+            }
+
+            assertEquals(kdTree.size(), bucket.size());
+            for (Point2D p : points) assertTrue(bucket.contains(p));
+
+            for (int i = 0; i < 200; i++) {
+                Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+                assertEquals(kdTree.nearest(query).distanceSquaredTo(query), bucket.nearest(query).distanceSquaredTo(query));
+                assertEquals(kdTree.contains(query), bucket.contains(query));
+
+                double x = random.nextDouble(), y = random.nextDouble();
+                RectHV rect = new RectHV(x, y, Math.min(1, x + 0.2), Math.min(1, y + 0.05));
+                assertEquals(kdTree.rangeCount(rect), count(bucket.range(rect)));
+            }
+        }
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
@@ -0,0 +1,100 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferedKdTreeTest {
+
+    // construction tests
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenBufferSizeIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferedKdTree(0));
+    }
+
+    // isEmpty and size tests
+
+    @Test
+    void isEmptyReturnsTrueWhenSetEmpty() {
+        BufferedKdTree set = new BufferedKdTree();
+
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertNull(set.nearest(new Point2D(0, 0)));
+        assertFalse(set.range(new RectHV(0, 0, 1, 1)).iterator().hasNext());
+    }
+
+    @Test
+    void sizeOnlyCountsOneCopyOfIdenticalItemsAcrossLevels() {
+        BufferedKdTree set = new BufferedKdTree(2);
+        for (int i = 0; i < 10; i++) set.insert(new Point2D(i / 10.0, 0.5));
+        for (int i = 0; i < 10; i++) set.insert(new Point2D(i / 10.0, 0.5));
+
+        assertEquals(10, set.size());
+        assertEquals(0, set.buffered());
+    }
+
+    // insert tests
+
+    @Test
+    void insertThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferedKdTree().insert(null));
+    }
+
+    @Test
+    void insertKeepsPointsInTheBufferUntilItIsFull() {
+        BufferedKdTree set = new BufferedKdTree(4);
+        for (int i = 0; i < 3; i++) set.insert(new Point2D(i, i));
+        assertEquals(3, set.buffered());
+
+        set.insert(new Point2D(3, 3));
+        assertEquals(0, set.buffered());
+        assertEquals(4, set.size());
+        for (int i = 0; i < 4; i++) assertTrue(set.contains(new Point2D(i, i)));
+    }
+
+    // query tests
+
+    @Test
+    void queriesThrowIllegalArgumentExceptionWhenInputIsNull() {
+        BufferedKdTree set = new BufferedKdTree();
+
+        assertThrows(IllegalArgumentException.class, () -> set.contains(null));
+        assertThrows(IllegalArgumentException.class, () -> set.range(null));
+        assertThrows(IllegalArgumentException.class, () -> set.nearest(null));
+    }
+
+    @Test
+    void queriesMatchKdTree() {
+        Random random = new Random(42);
+        KdTree kdTree = new KdTree();
+        BufferedKdTree buffered = new BufferedKdTree(16);
+
+        for (int i = 0; i < 5_000; i++) {
+            Point2D p = new Point2D(random.nextInt(200) / 200.0, random.nextInt(200) / 200.0);
+            kdTree.insert(p);
+            buffered.insert(p);
+            if (i % 97 != 0) continue;
+
+            assertEquals(kdTree.size(), buffered.size());
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            assertEquals(kdTree.nearest(query).distanceSquaredTo(query), buffered.nearest(query).distanceSquaredTo(query));
+            assertEquals(kdTree.contains(query), buffered.contains(query));
+
+            double x = random.nextDouble(), y = random.nextDouble();
+            RectHV rect = new RectHV(x, y, Math.min(1, x + 0.2), Math.min(1, y + 0.2));
+            assertEquals(count(kdTree.range(rect)), count(buffered.range(rect)));
+        }
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
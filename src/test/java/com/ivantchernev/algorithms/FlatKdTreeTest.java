@@ -0,0 +1,159 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatKdTreeTest {
+
+    // construction tests
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree((Point2D[]) null));
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new Point2D[] { null }));
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new double[1], null));
+    }
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenCoordinateArraysDiffer() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new double[2], new double[1]));
+    }
+
+    // isEmpty and size tests
+
+    @Test
+    void isEmptyReturnsTrueWhenSetEmpty() {
+        assertTrue(new FlatKdTree(new Point2D[0]).isEmpty());
+        assertEquals(0, new FlatKdTree(new Point2D[0]).size());
+    }
+
+    @Test
+    void sizeOnlyCountsOneCopyOfIdenticalItems() {
+        FlatKdTree set = new FlatKdTree(new double[] { 0.3, 0.3, 0.3, 0.5 }, new double[] { 0.9, 0.9, 0.1, 0.9 });
+
+        assertFalse(set.isEmpty());
+        assertEquals(3, set.size());
+    }
+
+    // contains tests
+
+    @Test
+    void containsThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new Point2D[0]).contains(null));
+    }
+
+    @Test
+    void containsFindsItemsWithIdenticalXElements() {
+        FlatKdTree set = new FlatKdTree(new double[] { 0.3, 0.3, 0.3, 0.3, 0.3 }, new double[] { 0.9, 0.1, 0.2, 0.8, 0.4 });
+
+        assertTrue(set.contains(new Point2D(0.3, 0.2)));
+        assertTrue(set.contains(new Point2D(0.3, 0.8)));
+        assertFalse(set.contains(new Point2D(0.3, 0.5)));
+    }
+
+    // range tests
+
+    @Test
+    void rangeThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new Point2D[0]).range(null));
+    }
+
+    @Test
+    void rangeContainsAllValuesInRect() {
+        FlatKdTree set = new FlatKdTree(new double[] { 0, 0.25, 0.5, 0.75, 1 }, new double[] { 0, 0.25, 0.5, 0.75, 1 });
+
+        Iterable<Point2D> range = set.range(new RectHV(0.4, 0.4, 0.6, 0.6));
+
+        assertEquals(1, count(range));
+        range.forEach(point2D -> assertEquals(new Point2D(0.5, 0.5), point2D));
+    }
+
+    // nearest tests
+
+    @Test
+    void nearestReturnsNullIfSetEmpty() {
+        assertNull(new FlatKdTree(new Point2D[0]).nearest(new Point2D(1, 1)));
+    }
+
+    @Test
+    void nearestWorksOutsideTheUnitSquare() {
+        FlatKdTree set = new FlatKdTree(new double[] { -500, 1200, 3 }, new double[] { 40, -7, 2500 });
+
+        assertEquals(new Point2D(1200, -7), set.nearest(new Point2D(1000, 0)));
+    }
+
+    @Test
+    void queriesMatchKdTree() {
+        Random random = new Random(42);
+        Point2D[] points = new Point2D[20_000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Point2D(random.nextInt(500) / 500.0, random.nextInt(500) / 500.0);
+        }
+
+        KdTree kdTree = new KdTree();
+        for (Point2D p : points) kdTree.insert(p);
+        FlatKdTree flat = new FlatKdTree(points);
+
+        assertEquals(kdTree.size(), flat.size());
+        for (Point2D p : points) assertTrue(flat.contains(p));
+
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            assertEquals(kdTree.nearest(query).distanceSquaredTo(query), flat.nearest(query).distanceSquaredTo(query));
+            assertEquals(kdTree.contains(query), flat.contains(query));
+
+            double x = random.nextDouble(), y = random.nextDouble();
+            RectHV rect = new RectHV(x, y, Math.min(1, x + 0.2), Math.min(1, y + 0.05));
+            assertEquals(count(kdTree.range(rect)), count(flat.range(rect)));
+        }
+    }
+
+    // layout tests
+
+    @Test
+    void constructorThrowsIllegalArgumentExceptionWhenLayoutIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatKdTree(new double[0], new double[0], null));
+    }
+
+    @Test
+    void vanEmdeBoasLayoutAnswersLikeInOrderLayout() {
+        Random random = new Random(7);
+        for (int n : new int[] { 0, 1, 2, 3, 7, 100, 4_097 }) {
+            double[] xs = new double[n], ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = random.nextInt(50) / 50.0;
+                ys[i] = random.nextInt(50) / 50.0;
+            }
+
+            FlatKdTree inOrder = new FlatKdTree(xs, ys);
+            FlatKdTree vanEmdeBoas = new FlatKdTree(xs, ys, FlatKdTree.Layout.VAN_EMDE_BOAS);
+            assertEquals(FlatKdTree.Layout.VAN_EMDE_BOAS, vanEmdeBoas.layout());
+            assertEquals(inOrder.size(), vanEmdeBoas.size());
+            for (int i = 0; i < n; i++) assertTrue(vanEmdeBoas.contains(new Point2D(xs[i], ys[i])));
+
+            for (int i = 0; i < 100; i++) {
+                Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+                assertEquals(inOrder.contains(query), vanEmdeBoas.contains(query));
+                if (n > 0) {
+                    assertEquals(inOrder.nearest(query).distanceSquaredTo(query),
+                            vanEmdeBoas.nearest(query).distanceSquaredTo(query));
+                }
+
+                double x = random.nextDouble(), y = random.nextDouble();
+                RectHV rect = new RectHV(x, y, Math.min(1, x + 0.2), Math.min(1, y + 0.2));
+                assertEquals(count(inOrder.range(rect)), count(vanEmdeBoas.range(rect)));
+            }
+        }
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
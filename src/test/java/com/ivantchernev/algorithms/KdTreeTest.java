@@ -1,9 +1,26 @@
 package com.ivantchernev.algorithms;
 
+import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class KdTreeTest {
@@ -75,6 +92,147 @@ class KdTreeTest {
         assertEquals(1, set.size());
     }
 
+    // bulk construction tests
+
+    @Test
+    void bulkConstructorThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree((Point2D[]) null));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree(new Point2D[] { null }));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree(null, new double[0]));
+    }
+
+    @Test
+    void bulkConstructorThrowsIllegalArgumentExceptionWhenCoordinateArraysDiffer() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree(new double[2], new double[3]));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree(new double[] { Double.NaN }, new double[1]));
+    }
+
+    @Test
+    void bulkConstructorOnlyAddsOneCopyOfIdenticalItems() {
+        KdTree set = new KdTree(new double[] { 0.3, 0.3, 0.3, 0.3, 0.5 }, new double[] { 0.9, 0.9, 0.1, 0.9, 0.9 });
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(new Point2D(0.3, 0.9)));
+        assertTrue(set.contains(new Point2D(0.3, 0.1)));
+        assertTrue(set.contains(new Point2D(0.5, 0.9)));
+    }
+
+    @Test
+    void bulkConstructorMatchesInsertedTree() {
+        Point2D[] points = randomPoints(50_000, 100);
+        KdTree inserted = new KdTree();
+        for (Point2D p : points) inserted.insert(p);
+
+        KdTree built = new KdTree(points);
+
+        assertEquals(inserted.size(), built.size());
+        for (Point2D p : points) assertTrue(built.contains(p));
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            assertEquals(inserted.nearest(query).distanceSquaredTo(query), built.nearest(query).distanceSquaredTo(query));
+
+            double x = random.nextDouble(), y = random.nextDouble();
+            RectHV rect = new RectHV(x, y, Math.min(1, x + 0.1), Math.min(1, y + 0.1));
+            assertEquals(count(inserted.range(rect)), count(built.range(rect)));
+        }
+    }
+
+    // delete tests
+
+    @Test
+    void deleteThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().delete(null));
+    }
+
+    @Test
+    void deleteIgnoresPointsNotInSet() {
+        KdTree set = new KdTree();
+
+        set.delete(new Point2D(0.5,0.5));
+        set.insert(new Point2D(0.5,0.5));
+        set.delete(new Point2D(0.5,0.6));
+
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void deleteRemovesPointFromSet() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.5,0.5));
+        set.insert(new Point2D(0.25,0.25));
+        set.insert(new Point2D(0.75,0.75));
+        set.delete(new Point2D(0.5,0.5));
+        set.delete(new Point2D(0.5,0.5));
+
+        assertEquals(2, set.size());
+        assertFalse(set.contains(new Point2D(0.5,0.5)));
+        assertEquals(new Point2D(0.25,0.25), set.nearest(new Point2D(0.45,0.45)));
+        assertEquals(2, count(set.range(new RectHV(0, 0, 1, 1))));
+        assertEquals(2, set.rangeCount(new RectHV(0, 0, 1, 1)));
+    }
+
+    @Test
+    void deletedPointCanBeInsertedAgain() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.5,0.5));
+        set.delete(new Point2D(0.5,0.5));
+        assertTrue(set.isEmpty());
+        assertNull(set.nearest(new Point2D(0.5,0.5)));
+
+        set.insert(new Point2D(0.5,0.5));
+        assertEquals(1, set.size());
+        assertTrue(set.contains(new Point2D(0.5,0.5)));
+    }
+
+    @Test
+    void deleteCompactsTreeOnceMostPointsAreGone() {
+        Point2D[] points = randomPoints(20_000, 1_000_000);
+        KdTree set = new KdTree(points);
+
+        for (Point2D p : points) if (p.x() < 0.99) set.delete(p);
+
+        // a tree still holding the 20K tombstones would be at least 15 levels tall
+        int balancedHeight = (int) Math.ceil(Math.log(set.size() + 1) / Math.log(2));
+        assertEquals(set.rangeCount(new RectHV(0.99, 0, 1, 1)), set.size());
+        assertTrue(set.height() <= balancedHeight + 1, "height " + set.height() + " for " + set.size() + " points");
+    }
+
+    @Test
+    void queriesMatchBruteForceWithInterleavedInsertsAndDeletes() {
+        KdTree set = new KdTree();
+        PointSET brute = new PointSET();
+        Random random = new Random(23);
+
+        for (int i = 0; i < 30_000; i++) {
+            Point2D p = new Point2D(random.nextInt(300) / 300.0, random.nextInt(300) / 300.0);
+            if (random.nextInt(3) == 0) {
+                set.delete(p);
+                brute.delete(p);
+            } else {
+                set.insert(p);
+                brute.insert(p);
+            }
+        }
+
+        assertEquals(brute.size(), set.size());
+        for (int i = 0; i < 300; i++) {
+            Point2D query = new Point2D(random.nextInt(300) / 300.0, random.nextInt(300) / 300.0);
+            assertEquals(brute.contains(query), set.contains(query));
+            assertEquals(brute.nearest(query).distanceSquaredTo(query), set.nearest(query).distanceSquaredTo(query));
+            assertArrayEquals(distances(brute.nearest(query, 5), query), distances(set.nearest(query, 5), query));
+
+            RectHV rect = new RectHV(query.x() / 2, query.y() / 2, query.x(), query.y());
+            int expected = count(brute.range(rect));
+            assertEquals(expected, count(set.range(rect)));
+            assertEquals(expected, set.rangeCount(rect));
+            assertEquals(count(set.withinRadius(query, 0.1)), set.countWithinRadius(query, 0.1));
+        }
+    }
+
     // contains tests
 
     @Test
@@ -142,6 +300,140 @@ class KdTreeTest {
         });
     }
 
+    @Test
+    void rangeIncludesPointsOnTheSplittingLine() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.5,0.5));
+        set.insert(new Point2D(0.5,0.7));
+
+        assertEquals(2, count(set.range(new RectHV(0.4, 0.4, 0.5, 0.8))));
+    }
+
+    // streaming range tests
+
+    @Test
+    void rangeWithVisitorThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().range(null, p -> true));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().range(new RectHV(0, 0, 1, 1), null));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().rangeIterator(null));
+    }
+
+    @Test
+    void rangeWithVisitorAndRangeIteratorVisitTheSamePointsAsRange() {
+        KdTree set = new KdTree(randomPoints(10_000, 100));
+        RectHV rect = new RectHV(0.2, 0.3, 0.5, 0.45);
+
+        List<Point2D> expected = new ArrayList<>();
+        set.range(rect).forEach(expected::add);
+        Collections.reverse(expected); // range hands its points back on a stack
+
+        List<Point2D> visited = new ArrayList<>();
+        assertTrue(set.range(rect, visited::add));
+        assertEquals(expected, visited);
+
+        List<Point2D> iterated = new ArrayList<>();
+        set.rangeIterator(rect).forEachRemaining(iterated::add);
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    void rangeWithVisitorStopsWhenVisitorReturnsFalse() {
+        KdTree set = new KdTree(randomPoints(10_000, 100));
+        List<Point2D> visited = new ArrayList<>();
+
+        boolean completed = set.range(new RectHV(0, 0, 1, 1), p -> visited.add(p) && visited.size() < 5);
+
+        assertFalse(completed);
+        assertEquals(5, visited.size());
+    }
+
+    @Test
+    void rangeIteratorThrowsNoSuchElementExceptionWhenExhausted() {
+        KdTree set = new KdTree();
+        set.insert(new Point2D(0.5, 0.5));
+
+        Iterator<Point2D> iterator = set.rangeIterator(new RectHV(0, 0, 1, 1));
+
+        assertEquals(new Point2D(0.5, 0.5), iterator.next());
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    // range count tests
+
+    @Test
+    void rangeCountThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().rangeCount(null));
+    }
+
+    @Test
+    void rangeCountReturnsZeroOnEmptySet() {
+        assertEquals(0, new KdTree().rangeCount(new RectHV(0, 0, 1, 1)));
+    }
+
+    @Test
+    void rangeCountMatchesRange() {
+        KdTree set = new KdTree(randomPoints(20_000, 200));
+        Random random = new Random(13);
+
+        assertEquals(set.size(), set.rangeCount(new RectHV(0, 0, 1, 1)));
+        for (int i = 0; i < 200; i++) {
+            // grid-aligned corners put points on the rectangle boundary and on splitting lines
+            double x0 = random.nextInt(200) / 200.0, x1 = random.nextInt(200) / 200.0;
+            double y0 = random.nextInt(200) / 200.0, y1 = random.nextInt(200) / 200.0;
+            RectHV rect = new RectHV(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1));
+
+            assertEquals(count(set.range(rect)), set.rangeCount(rect));
+        }
+    }
+
+    // radius tests
+
+    @Test
+    void withinRadiusThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().withinRadius(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().withinRadius(new Point2D(0, 0), -1));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().countWithinRadius(new Point2D(0, 0), Double.NaN));
+    }
+
+    @Test
+    void withinRadiusIncludesPointsOnTheCircle() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.5,0.5));
+        set.insert(new Point2D(0.5,0.75));
+        set.insert(new Point2D(0.7,0.7));
+        set.insert(new Point2D(0.1,0.1));
+
+        assertEquals(2, count(set.withinRadius(new Point2D(0.5, 0.5), 0.25)));
+        assertEquals(2, set.countWithinRadius(new Point2D(0.5, 0.5), 0.25));
+    }
+
+    @Test
+    void withinRadiusMatchesBruteForce() {
+        Point2D[] points = randomPoints(20_000, 1000);
+        KdTree set = new KdTree(points);
+        PointSET brute = new PointSET();
+        for (Point2D p : points) brute.insert(p);
+
+        Random random = new Random(9);
+        for (int i = 0; i < 100; i++) {
+            Point2D center = new Point2D(random.nextDouble() * 1.2 - 0.1, random.nextDouble() * 1.2 - 0.1);
+            double r = random.nextDouble() * 0.3;
+
+            int expected = 0;
+            for (Point2D p : brute.range(new RectHV(-1, -1, 2, 2))) {
+                if (p.distanceSquaredTo(center) <= r * r) expected++;
+            }
+
+            assertEquals(expected, count(set.withinRadius(center, r)));
+            assertEquals(expected, set.countWithinRadius(center, r));
+            for (Point2D p : set.withinRadius(center, r)) assertTrue(p.distanceSquaredTo(center) <= r * r);
+        }
+        assertEquals(set.size(), set.countWithinRadius(new Point2D(0.5, 0.5), Double.POSITIVE_INFINITY));
+    }
+
     // nearest tests
 
     @Test
@@ -168,5 +460,918 @@ class KdTreeTest {
 
         assertEquals(nearest, new Point2D(0.5,0.5));
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    void nearestWithCoordinatesMatchesNearestWithPoint() {
+        KdTree set = new KdTree(randomPoints(10_000, 1000));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            assertSame(set.nearest(query), set.nearest(query.x(), query.y()));
+        }
+    }
+
+    @Test
+    void nearestWithCoordinatesThrowsIllegalArgumentExceptionWhenInputIsNaN() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().nearest(Double.NaN, 0));
+    }
+
+    // k nearest tests
+
+    @Test
+    void kNearestThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().nearest(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().nearest(new Point2D(0, 0), -1));
+    }
+
+    @Test
+    void kNearestReturnsNothingIfSetEmptyOrKIsZero() {
+        KdTree set = new KdTree();
+        assertEquals(0, count(set.nearest(new Point2D(1, 1), 3)));
+
+        set.insert(new Point2D(0.5, 0.5));
+        assertEquals(0, count(set.nearest(new Point2D(1, 1), 0)));
+    }
+
+    @Test
+    void kNearestReturnsWholeSetWhenKExceedsSize() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.25,0.25));
+        set.insert(new Point2D(0,0));
+        set.insert(new Point2D(1,1));
+
+        assertEquals(3, count(set.nearest(new Point2D(0.6, 0.6), 10)));
+    }
+
+    @Test
+    void kNearestReturnsClosestPointsSortedByDistance() {
+        KdTree set = new KdTree();
+
+        set.insert(new Point2D(0.25,0.25));
+        set.insert(new Point2D(0,0));
+        set.insert(new Point2D(1,1));
+        set.insert(new Point2D(0.75,0.75));
+        set.insert(new Point2D(0.5,0.5));
+
+        Point2D[] expected = { new Point2D(0.5,0.5), new Point2D(0.75,0.75), new Point2D(0.25,0.25) };
+        int i = 0;
+        for (Point2D p : set.nearest(new Point2D(0.6,0.6), 3)) assertEquals(expected[i++], p);
+        assertEquals(3, i);
+    }
+
+    @Test
+    void kNearestMatchesBruteForce() {
+        Random random = new Random(5);
+        KdTree set = new KdTree();
+        PointSET brute = new PointSET();
+        for (int i = 0; i < 5_000; i++) {
+            Point2D p = new Point2D(random.nextDouble(), random.nextDouble());
+            set.insert(p);
+            brute.insert(p);
+        }
+
+        for (int k : new int[] { 1, 2, 7, 50 }) {
+            for (int i = 0; i < 50; i++) {
+                Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+                assertArrayEquals(distances(brute.nearest(query, k), query), distances(set.nearest(query, k), query));
+            }
+        }
+    }
+
+    @Test
+    void nearestDoesNotAllocate() {
+        KdTree set = new KdTree();
+        In in = new In("testing-data/input100K.txt");
+        while (!in.isEmpty()) set.insert(new Point2D(in.readDouble(), in.readDouble()));
+
+        Random random = new Random(11);
+        double[] queries = new double[20_000];
+        for (int i = 0; i < queries.length; i++) queries[i] = random.nextDouble();
+
+        // warm up so that the measured loop runs compiled code
+        for (int i = 0; i < 20; i++) nearestAll(set, queries);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        nearestAll(set, queries);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // a single allocation per query would already amount to 160KB here
+        assertTrue(allocated < 1024, "nearest allocated " + allocated + " bytes for " + queries.length / 2 + " queries");
+    }
+
+    // approximate nearest tests
+
+    @Test
+    void approximateNearestThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        KdTree set = new KdTree();
+
+        assertThrows(IllegalArgumentException.class, () -> set.approximateNearest(null, 0.1));
+        assertThrows(IllegalArgumentException.class, () -> set.approximateNearest(new Point2D(0, 0), -0.1));
+        assertThrows(IllegalArgumentException.class, () -> set.approximateNearest(new Point2D(0, 0), Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> set.nearestWithinBudget(null, 10));
+        assertThrows(IllegalArgumentException.class, () -> set.nearestWithinBudget(new Point2D(0, 0), 0));
+    }
+
+    @Test
+    void approximateNearestFindsNothingInAnEmptySet() {
+        ApproximateNearest nearest = new KdTree().approximateNearest(new Point2D(0.5, 0.5), 0.1);
+
+        assertNull(nearest.point());
+        assertEquals(Double.POSITIVE_INFINITY, nearest.distance());
+        assertNull(new KdTree().nearestWithinBudget(new Point2D(0.5, 0.5), 10).point());
+    }
+
+    @Test
+    void approximateNearestStaysWithinTheReportedBound() {
+        KdTree set = new KdTree(randomPoints(20_000, 1_000_000));
+        Random random = new Random(32);
+
+        for (double epsilon : new double[] { 0, 0.1, 0.5, 2 }) {
+            for (int i = 0; i < 300; i++) {
+                Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+                double exact = set.nearest(query).distanceTo(query);
+                ApproximateNearest nearest = set.approximateNearest(query, epsilon);
+
+                assertEquals(nearest.point().distanceTo(query), nearest.distance());
+                assertTrue(nearest.errorBound() >= 1 && nearest.errorBound() <= 1 + epsilon + 1e-12);
+                assertTrue(nearest.distance() <= exact * nearest.errorBound() * (1 + 1e-12));
+                if (epsilon == 0) assertTrue(nearest.isExact());
+            }
+        }
+    }
+
+    @Test
+    void approximateNearestVisitsFewerNodesOnClusteredData() {
+        Point2D[] points = new Point2D[20_000];
+        for (int i = 0; i < points.length; i++) {
+            double angle = 2 * Math.PI * i / points.length;
+            points[i] = new Point2D(0.5 + 0.5 * Math.cos(angle), 0.5 + 0.5 * Math.sin(angle));
+        }
+        KdTree set = new KdTree(points);
+        Random random = new Random(33);
+
+        long exactNodes = 0, approximateNodes = 0;
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(0.5 + 0.1 * random.nextGaussian(), 0.5 + 0.1 * random.nextGaussian());
+            exactNodes += set.approximateNearest(query, 0).nodesVisited();
+            approximateNodes += set.approximateNearest(query, 0.1).nodesVisited();
+        }
+        assertTrue(approximateNodes < exactNodes / 2, approximateNodes + " vs " + exactNodes);
+    }
+
+    @Test
+    void nearestWithinBudgetStaysWithinTheReportedBound() {
+        KdTree set = new KdTree(randomPoints(20_000, 1_000_000));
+        Random random = new Random(35);
+
+        for (int budget : new int[] { 1, 5, 20, 1_000_000 }) {
+            for (int i = 0; i < 300; i++) {
+                Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+                double exact = set.nearest(query).distanceTo(query);
+                ApproximateNearest nearest = set.nearestWithinBudget(query, budget);
+
+                assertTrue(nearest.nodesVisited() <= budget);
+                assertTrue(nearest.distance() <= exact * nearest.errorBound() * (1 + 1e-12));
+                if (budget == 1_000_000) {
+                    assertTrue(nearest.isExact());
+                    assertEquals(exact, nearest.distance());
+                }
+            }
+        }
+    }
+
+    // join tests
+
+    @Test
+    void joinThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        KdTree set = new KdTree();
+
+        assertThrows(IllegalArgumentException.class, () -> set.join(null, 0.1, (p, q) -> true));
+        assertThrows(IllegalArgumentException.class, () -> set.join(set, -0.1, (p, q) -> true));
+        assertThrows(IllegalArgumentException.class, () -> set.join(set, Double.NaN, (p, q) -> true));
+        assertThrows(IllegalArgumentException.class, () -> set.join(set, 0.1, null));
+        assertThrows(IllegalArgumentException.class, () -> set.joinInParallel(set, 0.1, null));
+    }
+
+    @Test
+    void joinFindsTheSamePairsAsARadiusSearchPerPoint() {
+        Random random = new Random(41);
+        KdTree customers = new KdTree(), stores = new KdTree();
+        for (int i = 0; i < 1_500; i++) customers.insert(new Point2D(random.nextInt(1000) / 1000.0, random.nextDouble()));
+        for (int i = 0; i < 1_000; i++) {
+            Point2D store = new Point2D(random.nextInt(1000) / 1000.0, random.nextDouble());
+            stores.insert(store);
+            if (i % 4 == 0) stores.delete(store);   // tombstones must not be paired
+        }
+
+        for (double r : new double[] { 0, 0.01, 0.05, 0.2 }) {
+            Set<String> expected = new HashSet<>();
+            for (Point2D p : customers.range(new RectHV(0, 0, 1, 1))) {
+                for (Point2D q : stores.withinRadius(p, r)) expected.add(p + " " + q);
+            }
+
+            Set<String> joined = new HashSet<>();
+            assertTrue(customers.join(stores, r, (p, q) -> {
+                assertTrue(p.distanceSquaredTo(q) <= r * r);
+                assertTrue(joined.add(p + " " + q), "pair reported twice");
+                return true;
+            }));
+            assertEquals(expected, joined);
+
+            Set<String> joinedInParallel = Collections.synchronizedSet(new HashSet<>());
+            assertTrue(customers.joinInParallel(stores, r, (p, q) -> joinedInParallel.add(p + " " + q)));
+            assertEquals(expected, joinedInParallel);
+        }
+    }
+
+    @Test
+    void joinStopsWhenVisitorReturnsFalse() {
+        KdTree set = new KdTree(randomPoints(5_000, 100));
+        int[] visited = new int[1];
+
+        assertFalse(set.join(set, 0.1, (p, q) -> ++visited[0] < 10));
+        assertEquals(10, visited[0]);
+
+        AtomicInteger visitedInParallel = new AtomicInteger();
+        assertFalse(set.joinInParallel(set, 0.1, (p, q) -> visitedInParallel.incrementAndGet() < 10));
+        assertTrue(visitedInParallel.get() >= 10);
+    }
+
+    @Test
+    void joinWithAnEmptySetFindsNothing() {
+        KdTree set = new KdTree(randomPoints(100, 100));
+
+        assertTrue(set.join(new KdTree(), 1, (p, q) -> fail("no pairs expected")));
+        assertTrue(new KdTree().join(set, 1, (p, q) -> fail("no pairs expected")));
+    }
+
+    // all nearest neighbors tests
+
+    @Test
+    void allNearestNeighborsMatchesBruteForce() {
+        KdTree set = new KdTree();
+        for (Point2D p : randomPoints(3_000, 200)) set.insert(p);
+        for (Point2D p : randomPoints(300, 200)) set.delete(p);   // deleted points are nobody's neighbor
+
+        NearestNeighbors nearestNeighbors = set.allNearestNeighbors();
+        assertEquals(set.size(), nearestNeighbors.size());
+
+        for (int i = 0; i < nearestNeighbors.size(); i++) {
+            Point2D p = nearestNeighbors.point(i);
+            assertTrue(set.contains(p));
+
+            double expected = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < nearestNeighbors.size(); j++) {
+                if (j != i) expected = Math.min(expected, p.distanceTo(nearestNeighbors.point(j)));
+            }
+            int neighbor = nearestNeighbors.neighbors()[i];
+            assertNotEquals(i, neighbor);
+            assertEquals(expected, p.distanceTo(nearestNeighbors.point(neighbor)));
+            assertEquals(expected, nearestNeighbors.distances()[i]);
+        }
+    }
+
+    @Test
+    void allNearestNeighborsOfTinySets() {
+        assertEquals(0, new KdTree().allNearestNeighbors().size());
+
+        NearestNeighbors single = new KdTree(new double[] { 0.5 }, new double[] { 0.5 }).allNearestNeighbors();
+        assertEquals(-1, single.neighbors()[0]);
+        assertEquals(Double.POSITIVE_INFINITY, single.distances()[0]);
+
+        NearestNeighbors pair = new KdTree(new double[] { 0, 3 }, new double[] { 0, 4 }).allNearestNeighbors();
+        assertArrayEquals(new int[] { 1, 0 }, pair.neighbors());
+        assertArrayEquals(new double[] { 5, 5 }, pair.distances());
+    }
+
+    @Test
+    void closestPairMatchesBruteForce() {
+        assertNull(new KdTree().closestPair());
+        assertNull(new KdTree(new double[] { 0.5 }, new double[] { 0.5 }).closestPair());
+
+        Random random = new Random(43);
+        Point2D[] points = new Point2D[2_000];
+        for (int i = 0; i < points.length; i++) points[i] = new Point2D(random.nextDouble(), random.nextDouble());
+        KdTree set = new KdTree(points);
+
+        double expected = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < points.length; i++) {
+            for (int j = i + 1; j < points.length; j++) expected = Math.min(expected, points[i].distanceTo(points[j]));
+        }
+        Point2D[] pair = set.closestPair();
+        assertTrue(set.contains(pair[0]) && set.contains(pair[1]));
+        assertNotEquals(pair[0], pair[1]);
+        assertEquals(expected, pair[0].distanceTo(pair[1]));
+    }
+
+    // bounding box tests
+
+    @Test
+    void boundsCoverEveryPoint() {
+        KdTree set = new KdTree();
+        assertNull(set.bounds());
+
+        set.insert(new Point2D(0.5, 0.5));
+        assertEquals(new RectHV(0.5, 0.5, 0.5, 0.5), set.bounds());
+
+        set.insert(new Point2D(-3, 2));
+        set.insert(new Point2D(7, -1));
+        assertEquals(new RectHV(-3, -1, 7, 2), set.bounds());
+        assertEquals(new RectHV(-3, -1, 7, 2), new KdTree(new double[] { 0.5, -3, 7 }, new double[] { 0.5, 2, -1 }).bounds());
+    }
+
+    @Test
+    void boundsShrinkWhenDeletedPointsAreCompacted() {
+        KdTree set = new KdTree();
+        for (Point2D p : randomPoints(100, 1000)) set.insert(p);
+        set.insert(new Point2D(5, 5));
+        set.delete(new Point2D(5, 5));
+
+        assertTrue(set.bounds().contains(new Point2D(5, 5)));
+        for (Point2D p : randomPoints(60, 1000)) set.delete(p);
+        assertTrue(set.bounds().xmax() <= 1);
+    }
+
+    @Test
+    void queriesWorkInProjectedCoordinates() {
+        // clusters of points in meters, far away from the unit square
+        Random random = new Random(11);
+        int n = 20_000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            int cluster = random.nextInt(10);
+            xs[i] = 500_000 + 10_000 * cluster + 300 * random.nextGaussian();
+            ys[i] = 4_000_000 + 7_000 * (cluster % 3) + 300 * random.nextGaussian();
+        }
+        KdTree bulk = new KdTree(xs, ys);
+        KdTree inserted = new KdTree();
+        PointSET brute = new PointSET();
+        for (int i = 0; i < n; i++) {
+            inserted.insert(new Point2D(xs[i], ys[i]));
+            brute.insert(new Point2D(xs[i], ys[i]));
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(490_000 + 120_000 * random.nextDouble(), 3_990_000 + 30_000 * random.nextDouble());
+            double expected = brute.nearest(query).distanceSquaredTo(query);
+            assertEquals(expected, bulk.nearest(query).distanceSquaredTo(query));
+            assertEquals(expected, inserted.nearest(query).distanceSquaredTo(query));
+
+            RectHV rect = new RectHV(query.x(), query.y(), query.x() + 2_000, query.y() + 1_000);
+            int inRect = count(brute.range(rect));
+            assertEquals(inRect, count(bulk.range(rect)));
+            assertEquals(inRect, inserted.rangeCount(rect));
+            assertEquals(countWithin(brute, query, 1_500), inserted.countWithinRadius(query, 1_500));
+        }
+    }
+
+    // batch query tests
+
+    @Test
+    void batchQueriesThrowIllegalArgumentExceptionWhenInputIsInvalid() {
+        KdTree set = new KdTree();
+
+        assertThrows(IllegalArgumentException.class, () -> set.nearestAll(null, new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> set.nearestAll(new double[2], new double[1]));
+        assertThrows(IllegalArgumentException.class, () -> set.rangeAll(null));
+        assertThrows(IllegalArgumentException.class, () -> set.rangeAll(new RectHV[] { null }));
+    }
+
+    @Test
+    void batchQueriesOnEmptyInput() {
+        KdTree set = new KdTree();
+        set.insert(new Point2D(0.5, 0.5));
+
+        assertEquals(0, set.nearestAll(new double[0], new double[0]).length);
+        assertTrue(set.rangeAll(new RectHV[0]).isEmpty());
+        assertNull(new KdTree().nearestAll(new double[] { 0.5 }, new double[] { 0.5 })[0]);
+    }
+
+    @Test
+    void nearestAllMatchesSingleQueriesInInputOrder() {
+        KdTree set = new KdTree(randomPoints(50_000, 100_000));
+        Random random = new Random(7);
+        double[] xs = new double[20_000];
+        double[] ys = new double[20_000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+
+        Point2D[] nearest = set.nearestAll(xs, ys);
+
+        assertEquals(xs.length, nearest.length);
+        for (int i = 0; i < xs.length; i++) assertEquals(set.nearest(xs[i], ys[i]), nearest[i]);
+    }
+
+    @Test
+    void rangeAllMatchesSingleQueriesInInputOrder() {
+        KdTree set = new KdTree(randomPoints(20_000, 1000));
+        Random random = new Random(7);
+        RectHV[] rects = new RectHV[5_000];
+        for (int i = 0; i < rects.length; i++) {
+            double x = random.nextDouble(), y = random.nextDouble();
+            rects[i] = new RectHV(x, y, Math.min(1, x + 0.05), Math.min(1, y + 0.02));
+        }
+
+        List<Iterable<Point2D>> ranges = set.rangeAll(rects);
+
+        assertEquals(rects.length, ranges.size());
+        for (int i = 0; i < rects.length; i++) {
+            assertEquals(set.rangeCount(rects[i]), count(ranges.get(i)));
+            for (Point2D p : ranges.get(i)) assertTrue(rects[i].contains(p));
+        }
+    }
+
+    @Test
+    void batchedRangeThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        KdTree set = new KdTree();
+
+        assertThrows(IllegalArgumentException.class, () -> set.range((RectHV[]) null, (i, p) -> true));
+        assertThrows(IllegalArgumentException.class, () -> set.range(new RectHV[] { null }, (i, p) -> true));
+        assertThrows(IllegalArgumentException.class, () -> set.range(new RectHV[0], null));
+    }
+
+    @Test
+    void batchedRangeMatchesSingleQueries() {
+        KdTree set = new KdTree();
+        for (Point2D p : randomPoints(20_000, 500)) set.insert(p);
+        for (Point2D p : randomPoints(2_000, 500)) set.delete(p);
+
+        // a grid of touching tiles plus random rectangles overlapping them and each other
+        Random random = new Random(17);
+        RectHV[] rects = new RectHV[64 + 200];
+        for (int i = 0; i < 64; i++) {
+            int column = i % 8, row = i / 8;
+            rects[i] = new RectHV(column / 8.0, row / 8.0, (column + 1) / 8.0, (row + 1) / 8.0);
+        }
+        for (int i = 64; i < rects.length; i++) {
+            double x = random.nextDouble(), y = random.nextDouble();
+            rects[i] = new RectHV(x, y, Math.min(1, x + random.nextDouble() / 4), Math.min(1, y + 0.01));
+        }
+
+        List<Set<Point2D>> found = new ArrayList<>();
+        for (int i = 0; i < rects.length; i++) found.add(new HashSet<>());
+        assertTrue(set.range(rects, (i, p) -> {
+            assertTrue(found.get(i).add(p), "point reported twice for one rectangle");
+            return true;
+        }));
+
+        for (int i = 0; i < rects.length; i++) {
+            Set<Point2D> expected = new HashSet<>();
+            for (Point2D p : set.range(rects[i])) expected.add(p);
+            assertEquals(expected, found.get(i));
+        }
+    }
+
+    @Test
+    void batchedRangeStopsWhenVisitorReturnsFalse() {
+        KdTree set = new KdTree(randomPoints(5_000, 100));
+        RectHV[] rects = { new RectHV(0, 0, 0.5, 0.5), new RectHV(0.25, 0.25, 1, 1) };
+        int[] visited = new int[1];
+
+        assertFalse(set.range(rects, (i, p) -> ++visited[0] < 10));
+        assertEquals(10, visited[0]);
+        assertTrue(new KdTree().range(rects, (i, p) -> fail("no points expected")));
+        assertTrue(set.range(new RectHV[0], (i, p) -> fail("no points expected")));
+    }
+
+    // metrics tests
+
+    @Test
+    void metricsAreOffByDefault() {
+        KdTree set = new KdTree(randomPoints(100, 1000));
+        set.nearest(new Point2D(0.5, 0.5));
+
+        assertFalse(set.isMetricsEnabled());
+        assertNull(set.nearestMetrics());
+        assertNull(set.rangeMetrics());
+    }
+
+    @Test
+    void measuredQueriesMatchUnmeasuredQueries() {
+        KdTree set = new KdTree();
+        for (Point2D p : randomPoints(20_000, 1000)) set.insert(p);
+        Random random = new Random(7);
+        Point2D[] queries = new Point2D[500];
+        RectHV[] rects = new RectHV[500];
+        Point2D[] nearest = new Point2D[500];
+        int[] counts = new int[500];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new Point2D(random.nextDouble(), random.nextDouble());
+            rects[i] = new RectHV(queries[i].x(), queries[i].y(), Math.min(1, queries[i].x() + 0.1), Math.min(1, queries[i].y() + 0.1));
+            nearest[i] = set.nearest(queries[i]);
+            counts[i] = count(set.range(rects[i]));
+        }
+
+        set.enableMetrics();
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(nearest[i], set.nearest(queries[i]));
+            assertEquals(counts[i], count(set.range(rects[i])));
+        }
+
+        QueryMetrics nearestMetrics = set.nearestMetrics();
+        QueryMetrics rangeMetrics = set.rangeMetrics();
+        int height = set.shape().height();
+        assertEquals(nearestMetrics.queries() + nearestMetrics.subtreesDescended(), nearestMetrics.nodesVisited());
+        for (QueryMetrics metrics : new QueryMetrics[] { nearestMetrics, rangeMetrics }) {
+            assertEquals(queries.length, metrics.queries());
+            assertTrue(metrics.nodesVisited() <= metrics.queries() + metrics.subtreesDescended());
+            assertTrue(metrics.maxDepth() < height);
+            assertTrue(metrics.maxNodesVisited() >= metrics.meanNodesVisited());
+        }
+        assertTrue(nearestMetrics.meanNodesVisited() < 200);
+        assertTrue(nearestMetrics.pruningRatio() > 0);
+    }
+
+    @Test
+    void metricsCountTheNodesARangeSearchWalks() {
+        KdTree set = new KdTree(new double[] { 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7 }, new double[] { 0.7, 0.1, 0.6, 0.2, 0.5, 0.3, 0.4 });
+        set.enableMetrics();
+
+        assertEquals(7, count(set.range(new RectHV(0, 0, 1, 1))));
+        assertEquals(0, count(set.range(new RectHV(0.8, 0.8, 1, 1))));
+        assertFalse(set.range(new RectHV(0, 0, 1, 1), p -> false));
+
+        QueryMetrics metrics = set.rangeMetrics();
+        assertEquals(3, metrics.queries());
+        assertEquals(7 + 1, metrics.nodesVisited());
+        assertEquals(6, metrics.subtreesDescended());
+        assertEquals(1, metrics.subtreesPruned());
+        assertEquals(7, metrics.maxNodesVisited());
+        assertEquals(2, metrics.maxDepth());
+    }
+
+    @Test
+    void disableMetricsDropsRecordedQueries() {
+        KdTree set = new KdTree(randomPoints(100, 1000));
+        set.enableMetrics();
+        set.nearest(new Point2D(0.5, 0.5));
+        set.enableMetrics();
+
+        assertEquals(1, set.nearestMetrics().queries());
+        set.disableMetrics();
+        set.enableMetrics();
+        assertEquals(0, set.nearestMetrics().queries());
+    }
+
+    @Test
+    void shapeOfBalancedTree() {
+        KdTree set = new KdTree(new double[] { 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7 }, new double[] { 0.7, 0.1, 0.6, 0.2, 0.5, 0.3, 0.4 });
+
+        TreeShape shape = set.shape();
+
+        assertEquals(3, shape.height());
+        assertArrayEquals(new int[] { 1, 2, 4 }, shape.depthHistogram());
+        assertArrayEquals(new double[] { 0, 0, 0 }, shape.balanceFactors());
+        assertEquals(0, new KdTree().shape().height());
+    }
+
+    @Test
+    void shapeOfDegenerateTree() {
+        KdTree set = new KdTree();
+        set.insert(new Point2D(0.1, 0.1));
+        set.insert(new Point2D(0.2, 0.2));
+        set.insert(new Point2D(0.3, 0.3));
+
+        TreeShape shape = set.shape();
+
+        assertEquals(set.height(), shape.height());
+        assertArrayEquals(new int[] { 1, 1, 1 }, shape.depthHistogram());
+        assertArrayEquals(new double[] { 1, 1, 0 }, shape.balanceFactors());
+    }
+
+    @Test
+    void mbeanExposesShapeAndMetrics() throws Exception {
+        KdTree set = new KdTree(randomPoints(1_000, 100_000));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = set.registerMBean("mbeanExposesShapeAndMetrics");
+        try {
+            assertThrows(IllegalArgumentException.class, () -> set.registerMBean("mbeanExposesShapeAndMetrics"));
+            assertEquals(1_000, server.getAttribute(name, "Size"));
+            assertEquals(set.height(), server.getAttribute(name, "Height"));
+            assertEquals(false, server.getAttribute(name, "MetricsEnabled"));
+            assertEquals(0L, server.getAttribute(name, "NearestQueries"));
+
+            server.setAttribute(name, new Attribute("MetricsEnabled", true));
+            set.nearest(new Point2D(0.5, 0.5));
+
+            assertTrue(set.isMetricsEnabled());
+            assertEquals(1L, server.getAttribute(name, "NearestQueries"));
+            assertEquals(set.shape().height(), ((int[]) server.getAttribute(name, "DepthHistogram")).length);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    // persistent mode tests
+
+    @Test
+    void snapshotThrowsUnsupportedOperationExceptionUnlessPersistent() {
+        assertFalse(new KdTree().isPersistent());
+        assertThrows(UnsupportedOperationException.class, () -> new KdTree().snapshot());
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterUpdates() {
+        KdTree set = KdTree.persistent();
+        for (Point2D p : randomPoints(5_000, 100)) set.insert(p);
+
+        KdTree snapshot = set.snapshot();
+        int size = snapshot.size();
+        Point2D removed = snapshot.nearest(new Point2D(0.5, 0.5));
+
+        set.delete(removed);
+        for (Point2D p : randomPoints(5_000, 1000)) set.insert(p);
+
+        assertTrue(set.isPersistent() && snapshot.isPersistent());
+        assertEquals(size, snapshot.size());
+        assertEquals(size, snapshot.rangeCount(new RectHV(0, 0, 1, 1)));
+        assertEquals(size, count(snapshot.range(new RectHV(0, 0, 1, 1))));
+        assertTrue(snapshot.contains(removed));
+        assertFalse(set.contains(removed));
+        assertTrue(set.size() > size);
+    }
+
+    @Test
+    void snapshotIsReadOnlyWithMetricsOfItsOwn() {
+        KdTree set = KdTree.persistent();
+        for (Point2D p : randomPoints(1_000, 100)) set.insert(p);
+        set.enableMetrics();
+
+        KdTree snapshot = set.snapshot();
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.insert(new Point2D(0.5, 0.5)));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.delete(snapshot.nearest(new Point2D(0.5, 0.5))));
+        assertEquals(set.size(), snapshot.size());
+        assertFalse(snapshot.isMetricsEnabled());
+
+        snapshot.enableMetrics();
+        snapshot.nearest(new Point2D(0.5, 0.5));
+        snapshot.nearest(new Point2D(0.2, 0.2));
+        set.nearest(new Point2D(0.5, 0.5));
+        assertEquals(2, snapshot.nearestMetrics().queries());
+        assertEquals(1, set.nearestMetrics().queries());
+    }
+
+    @Test
+    void queriesSeeConsistentVersionsWhileAWriterInserts() throws InterruptedException {
+        KdTree set = KdTree.persistent();
+        Point2D[] points = randomPoints(50_000, 100_000);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            for (Point2D p : points) set.insert(p);
+            writing.set(false);
+        });
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                try {
+                    while (writing.get()) {
+                        KdTree snapshot = set.snapshot();
+                        RectHV all = new RectHV(0, 0, 1, 1);
+                        assertEquals(snapshot.size(), snapshot.rangeCount(all));
+                        assertEquals(snapshot.size(), count(snapshot.range(all)));
+                        if (!snapshot.isEmpty()) assertTrue(snapshot.contains(snapshot.nearest(new Point2D(0.5, 0.5))));
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) reader.start();
+        writer.join();
+        for (Thread reader : readers) reader.join();
+
+        if (failure.get() != null) fail(failure.get());
+        for (Point2D p : points) assertTrue(set.contains(p));
+    }
+
+    // flatten tests
+
+    @Test
+    void flattenThrowsIllegalArgumentExceptionWhenLayoutIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().flatten(null));
+    }
+
+    @Test
+    void flattenCopiesOnlyLivePoints() {
+        KdTree set = new KdTree();
+        for (int i = 0; i < 100; i++) set.insert(new Point2D(i / 100.0, (i * 37 % 100) / 100.0));
+        for (int i = 0; i < 100; i += 3) set.delete(new Point2D(i / 100.0, (i * 37 % 100) / 100.0));
+
+        for (FlatKdTree.Layout layout : FlatKdTree.Layout.values()) {
+            FlatKdTree flat = set.flatten(layout);
+            assertEquals(layout, flat.layout());
+            assertEquals(set.size(), flat.size());
+            for (int i = 0; i < 100; i++) {
+                Point2D p = new Point2D(i / 100.0, (i * 37 % 100) / 100.0);
+                assertEquals(set.contains(p), flat.contains(p));
+            }
+        }
+        assertTrue(new KdTree().flatten(FlatKdTree.Layout.VAN_EMDE_BOAS).isEmpty());
+    }
+
+    // degenerate tree tests
+
+    @Test
+    void operationsDoNotOverflowTheStackOnDegenerateTrees() throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // a chain is the tree sorted input gives without rebalancing; a 256KB stack overflows long before 20K
+        // recursive calls
+        Thread thread = new Thread(null, () -> {
+            try {
+                int n = 20_000;
+                Point2D[] points = new Point2D[n];
+                for (int i = 0; i < n; i++) points[i] = new Point2D((double) i / n, (double) i / n);
+                KdTree set = KdTree.chain(points);
+
+                Point2D last = new Point2D((double) (n - 1) / n, (double) (n - 1) / n);
+                assertEquals(n, set.size());
+                assertEquals(n, set.height());
+                assertTrue(set.contains(last));
+                assertEquals(n, count(set.range(new RectHV(0, 0, 1, 1))));
+                assertEquals(n, set.rangeCount(new RectHV(0, 0, 1, 1)));
+                assertEquals(last, set.nearest(new Point2D(1, 1)));
+                assertEquals(3, count(set.nearest(new Point2D(1, 1), 3)));
+                assertEquals(n, count(set.withinRadius(new Point2D(0, 0), 2)));
+                assertEquals(n, set.countWithinRadius(new Point2D(0, 0), 2));
+
+                AtomicInteger found = new AtomicInteger();
+                assertTrue(set.range(new RectHV[] { new RectHV(0, 0, 1, 1), new RectHV(0, 0, 0.9, 0.9) }, (r, p) -> {
+                    found.incrementAndGet();
+                    return true;
+                }));
+                assertEquals(n + (int) (0.9 * n) + 1, found.get());
+
+                // only the pairs of each point with itself are this close
+                found.set(0);
+                assertTrue(set.join(set, 0.5 / n, (p, q) -> found.incrementAndGet() > 0));
+                assertEquals(n, found.get());
+                found.set(0);
+                assertTrue(set.joinInParallel(set, 0.5 / n, (p, q) -> found.incrementAndGet() > 0));
+                assertEquals(n, found.get());
+
+                set.enableMetrics();
+                assertEquals(n, count(set.range(new RectHV(0, 0, 1, 1))));
+                assertEquals(last, set.nearest(new Point2D(1, 1)));
+                assertEquals(n - 1, set.rangeMetrics().maxDepth());
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "small-stack", 1 << 18);
+        thread.start();
+        thread.join();
+
+        if (failure.get() != null) fail(failure.get());
+    }
+
+    @Test
+    void operationsDoNotOverflowTheStackAfterInsertingSortedPoints() throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // 500K sorted points through the public insert, queried on a 256KB stack
+        Thread thread = new Thread(null, () -> {
+            try {
+                int n = 500_000;
+                KdTree set = new KdTree();
+                for (int i = 0; i < n; i++) set.insert(new Point2D((double) i / n, (double) i / n));
+
+                Point2D last = new Point2D((double) (n - 1) / n, (double) (n - 1) / n);
+                assertEquals(n, set.size());
+                assertTrue(set.contains(last));
+                assertFalse(set.contains(new Point2D(1, 1)));
+                assertEquals(n, count(set.range(new RectHV(0, 0, 1, 1))));
+                assertEquals(n, set.rangeCount(new RectHV(0, 0, 1, 1)));
+                assertEquals(last, set.nearest(new Point2D(1, 1)));
+                assertEquals(3, count(set.nearest(new Point2D(1, 1), 3)));
+                assertEquals(n, set.countWithinRadius(new Point2D(0, 0), 2));
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "small-stack", 1 << 18);
+        thread.start();
+        thread.join();
+
+        if (failure.get() != null) fail(failure.get());
+    }
+
+    @Test
+    void chainRejectsPointsThatAreNotIncreasing() {
+        assertThrows(IllegalArgumentException.class, () -> KdTree.chain(null));
+        assertThrows(IllegalArgumentException.class, () -> KdTree.chain(new Point2D[] { null }));
+        assertThrows(IllegalArgumentException.class,
+                () -> KdTree.chain(new Point2D[] { new Point2D(0.1, 0.1), new Point2D(0.2, 0.1) }));
+        assertEquals(0, KdTree.chain(new Point2D[0]).size());
+    }
+
+    // rebalancing tests
+
+    @Test
+    void insertKeepsHeightLogarithmicForSortedInput() {
+        int n = 100_000;
+        KdTree horizontal = new KdTree();
+        KdTree vertical = new KdTree();
+        for (int i = 0; i < n; i++) {
+            horizontal.insert(new Point2D((double) i / n, 0.5));
+            vertical.insert(new Point2D(0.5, (double) i / n));
+        }
+
+        int bound = (int) (Math.log(n) / Math.log(1 / 0.75)) + 3;
+        assertEquals(n, horizontal.size());
+        assertEquals(n, vertical.size());
+        assertTrue(horizontal.height() <= bound, "height " + horizontal.height() + " exceeds " + bound);
+        assertTrue(vertical.height() <= bound, "height " + vertical.height() + " exceeds " + bound);
+    }
+
+    @Test
+    void queriesMatchBruteForceAfterRebalancing() {
+        KdTree set = new KdTree();
+        PointSET brute = new PointSET();
+        Random random = new Random(17);
+
+        // clustered, spatially correlated input that keeps triggering rebuilds
+        for (int i = 0; i < 20_000; i++) {
+            double t = (double) i / 20_000;
+            Point2D p = new Point2D(Math.round((t + random.nextDouble() * 0.01) * 1000) / 1000.0, Math.round(t * 500) / 500.0);
+            set.insert(p);
+            brute.insert(p);
+        }
+
+        assertEquals(brute.size(), set.size());
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            assertEquals(brute.nearest(query).distanceSquaredTo(query), set.nearest(query).distanceSquaredTo(query));
+            assertEquals(brute.contains(query), set.contains(query));
+
+            RectHV rect = new RectHV(query.x() / 2, query.y() / 2, query.x(), query.y());
+            assertEquals(count(brute.range(rect)), count(set.range(rect)));
+            assertEquals(count(brute.range(rect)), set.rangeCount(rect));
+        }
+        for (Point2D p : brute.range(new RectHV(0, 0, 2, 2))) assertTrue(set.contains(p));
+    }
+
+    @Test
+    void queriesCanBeNestedInsideAVisitor() {
+        KdTree set = new KdTree(randomPoints(1_000, 100));
+        RectHV rect = new RectHV(0.2, 0.2, 0.4, 0.4);
+
+        int[] visited = new int[1];
+        set.range(rect, p -> {
+            assertEquals(p, set.nearest(p));
+            visited[0]++;
+            return true;
+        });
+
+        assertEquals(set.rangeCount(rect), visited[0]);
+    }
+
+    // helpers
+
+    // points on a grid of the given resolution, so that coordinates and whole points repeat
+    private static Point2D[] randomPoints(int n, int resolution) {
+        Random random = new Random(42);
+        Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D((double) random.nextInt(resolution) / resolution,
+                                    (double) random.nextInt(resolution) / resolution);
+        }
+        return points;
+    }
+
+    private static double nearestAll(KdTree set, double[] queries) {
+        double checksum = 0;
+        for (int i = 0; i < queries.length; i += 2) checksum += set.nearest(queries[i], queries[i + 1]).x();
+        return checksum;
+    }
+
+    private static double[] distances(Iterable<Point2D> points, Point2D query) {
+        double[] distances = new double[count(points)];
+        int i = 0;
+        for (Point2D p : points) distances[i++] = p.distanceSquaredTo(query);
+        return distances;
+    }
+
+    private static int countWithin(PointSET set, Point2D center, double r) {
+        int count = 0;
+        for (Point2D p : set.range(new RectHV(center.x() - r, center.y() - r, center.x() + r, center.y() + r))) {
+            if (p.distanceSquaredTo(center) <= r * r) count++;
+        }
+        return count;
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
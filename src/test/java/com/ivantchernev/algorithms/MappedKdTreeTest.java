@@ -0,0 +1,143 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedKdTreeTest {
+
+    // save and open tests
+
+    @Test
+    void saveAndOpenThrowIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTree().save(null));
+        assertThrows(IllegalArgumentException.class, () -> MappedKdTree.open(null));
+    }
+
+    @Test
+    void openThrowsIllegalArgumentExceptionWhenFileIsNotASnapshot() throws IOException {
+        Path text = tempFile();
+        Files.write(text, "0.5 0.5\n0.25 0.75\n0.125 0.875\n0.0625 0.9375\n0.5 0.5\n".getBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> MappedKdTree.open(text.toString()));
+    }
+
+    @Test
+    void openThrowsIllegalArgumentExceptionWhenSnapshotIsTruncated() throws IOException {
+        Path file = save(new KdTree(new double[] { 0.1, 0.2 }, new double[] { 0.3, 0.4 }));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThrows(IllegalArgumentException.class, () -> MappedKdTree.open(file.toString()));
+    }
+
+    @Test
+    void headerHoldsSizeAndBoundsInLittleEndian() throws IOException {
+        Path file = save(new KdTree(new double[] { -2, 0.5, 3 }, new double[] { 1, -4, 0.25 }));
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(MappedKdTree.HEADER_BYTES + 3 * MappedKdTree.NODE_BYTES, header.capacity());
+        assertEquals(MappedKdTree.MAGIC, header.getInt(0));
+        assertEquals(3, header.getInt(4));
+        assertEquals(-2, header.getDouble(8));
+        assertEquals(-4, header.getDouble(16));
+        assertEquals(3, header.getDouble(24));
+        assertEquals(1, header.getDouble(32));
+        assertEquals(new RectHV(-2, -4, 3, 1), MappedKdTree.open(file.toString()).bounds());
+    }
+
+    @Test
+    void emptySetRoundTrips() throws IOException {
+        MappedKdTree set = MappedKdTree.open(save(new KdTree()).toString());
+
+        assertTrue(set.isEmpty());
+        assertNull(set.bounds());
+        assertNull(set.nearest(new Point2D(0.5, 0.5)));
+        assertFalse(set.contains(new Point2D(0.5, 0.5)));
+        assertFalse(set.range(new RectHV(0, 0, 1, 1)).iterator().hasNext());
+    }
+
+    // query tests
+
+    @Test
+    void queriesMatchTheSavedKdTree() throws IOException {
+        Random random = new Random(42);
+        KdTree kdTree = new KdTree();
+        for (int i = 0; i < 20_000; i++) kdTree.insert(new Point2D(random.nextInt(500) / 500.0, random.nextInt(500) / 500.0));
+
+        MappedKdTree mapped = MappedKdTree.open(save(kdTree).toString());
+
+        assertEquals(kdTree.size(), mapped.size());
+        for (int i = 0; i < 500; i++) {
+            Point2D query = new Point2D(random.nextInt(500) / 500.0, random.nextInt(500) / 500.0);
+            assertEquals(kdTree.contains(query), mapped.contains(query));
+            assertEquals(kdTree.nearest(query).distanceSquaredTo(query), mapped.nearest(query).distanceSquaredTo(query));
+
+            Point2D outside = new Point2D(3 * random.nextDouble() - 1, 3 * random.nextDouble() - 1);
+            assertEquals(kdTree.nearest(outside).distanceSquaredTo(outside), mapped.nearest(outside).distanceSquaredTo(outside));
+
+            double x = random.nextDouble(), y = random.nextDouble();
+            RectHV rect = new RectHV(x, y, Math.min(1, x + 0.1), Math.min(1, y + 0.05));
+            assertEquals(kdTree.rangeCount(rect), count(mapped.range(rect)));
+        }
+    }
+
+    @Test
+    void deletedPointsAreNotSaved() throws IOException {
+        KdTree kdTree = new KdTree();
+        for (int i = 0; i < 100; i++) kdTree.insert(new Point2D(i / 100.0, (i * 37 % 100) / 100.0));
+        for (int i = 0; i < 100; i += 3) kdTree.delete(new Point2D(i / 100.0, (i * 37 % 100) / 100.0));
+
+        MappedKdTree mapped = MappedKdTree.open(save(kdTree).toString());
+
+        assertEquals(kdTree.size(), mapped.size());
+        for (int i = 0; i < 100; i++) {
+            Point2D p = new Point2D(i / 100.0, (i * 37 % 100) / 100.0);
+            assertEquals(kdTree.contains(p), mapped.contains(p));
+        }
+        assertEquals(kdTree.size(), count(mapped.range(new RectHV(0, 0, 1, 1))));
+    }
+
+    @Test
+    void persistentSetSavesItsCurrentVersion() throws IOException {
+        KdTree kdTree = KdTree.persistent();
+        kdTree.insert(new Point2D(0.2, 0.3));
+        kdTree.insert(new Point2D(0.7, 0.1));
+        kdTree.delete(new Point2D(0.2, 0.3));
+
+        MappedKdTree mapped = MappedKdTree.open(save(kdTree).toString());
+
+        assertEquals(1, mapped.size());
+        assertTrue(mapped.contains(new Point2D(0.7, 0.1)));
+        assertFalse(mapped.contains(new Point2D(0.2, 0.3)));
+    }
+
+    private static Path save(KdTree set) throws IOException {
+        Path file = tempFile();
+        set.save(file.toString());
+        return file;
+    }
+
+    private static Path tempFile() throws IOException {
+        Path file = Files.createTempFile("kdtree", ".bin");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D ignored : points) count++;
+        return count;
+    }
+}
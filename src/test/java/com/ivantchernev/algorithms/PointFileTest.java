@@ -0,0 +1,82 @@
+package com.ivantchernev.algorithms;
+
+import edu.princeton.cs.algs4.In;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointFileTest {
+
+    @Test
+    void readThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> PointFile.read(null));
+    }
+
+    @Test
+    void readThrowsWhenFileIsMissing() {
+        assertThrows(NoSuchFileException.class, () -> PointFile.read("testing-data/missing.txt"));
+    }
+
+    @Test
+    void readMatchesAlgs4InOnTestingData() throws IOException {
+        for (String filename : new String[] { "testing-data/input10K.txt", "testing-data/circle10.txt" }) {
+            PointFile points = PointFile.read(filename);
+
+            In in = new In(filename);
+            int i = 0;
+            while (!in.isEmpty()) {
+                assertEquals(in.readDouble(), points.xs()[i]);
+                assertEquals(in.readDouble(), points.ys()[i]);
+                i++;
+            }
+            assertEquals(i, points.size());
+        }
+    }
+
+    @Test
+    void readMatchesAcrossChunkBoundaries() throws IOException {
+        PointFile whole = PointFile.read("testing-data/input10K.txt");
+        PointFile chunked = PointFile.read("testing-data/input10K.txt", 1000);
+
+        assertArrayEquals(whole.xs(), chunked.xs());
+        assertArrayEquals(whole.ys(), chunked.ys());
+    }
+
+    @Test
+    void readAcceptsAnyWhitespaceAndNumberFormat() throws IOException {
+        Path file = write("  -0.5\t1e-3\r\n+2 .25\n\n0.12345678901234567890 3.0E2 1 -0");
+
+        PointFile points = PointFile.read(file.toString(), 7);
+
+        assertArrayEquals(new double[] { -0.5, 2, 0.12345678901234567890, 1 }, points.xs());
+        assertArrayEquals(new double[] { 1e-3, 0.25, 300, -0.0 }, points.ys());
+    }
+
+    @Test
+    void readOfEmptyFileHasNoPoints() throws IOException {
+        assertEquals(0, PointFile.read(write("").toString()).size());
+        assertEquals(0, PointFile.read(write(" \n").toString()).size());
+    }
+
+    @Test
+    void readThrowsIllegalArgumentExceptionOnMalformedFile() throws IOException {
+        Path odd = write("0.1 0.2\n0.3\n");
+        Path garbage = write("0.1 0.2\n0.3 x\n");
+
+        assertThrows(IllegalArgumentException.class, () -> PointFile.read(odd.toString()));
+        assertThrows(IllegalArgumentException.class, () -> PointFile.read(garbage.toString()));
+    }
+
+    private static Path write(String contents) throws IOException {
+        Path file = Files.createTempFile("points", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, contents.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
@@ -4,6 +4,12 @@ import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class PointSETTest {
@@ -64,6 +70,25 @@ class PointSETTest {
         assertEquals(7, set.size());
     }
 
+    // delete tests
+
+    @Test
+    void deleteThrowsIllegalArgumentExceptionWhenInputIsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new PointSET().delete(null));
+    }
+
+    @Test
+    void deleteRemovesPointFromSet() {
+        PointSET set = new PointSET();
+
+        set.insert(new Point2D(1,1));
+        set.insert(new Point2D(2,2));
+        set.delete(new Point2D(1,1));
+
+        assertEquals(1, set.size());
+        assertFalse(set.contains(new Point2D(1,1)));
+    }
+
     // contains tests
 
     @Test
@@ -130,6 +155,35 @@ class PointSETTest {
         });
     }
 
+    @Test
+    void rangeWithVisitorStopsWhenVisitorReturnsFalse() {
+        PointSET set = new PointSET();
+
+        set.insert(new Point2D(1,1));
+        set.insert(new Point2D(2,2));
+        set.insert(new Point2D(3,3));
+
+        List<Point2D> visited = new ArrayList<>();
+        assertFalse(set.range(new RectHV(0, 0, 4, 4), p -> visited.add(p) && visited.size() < 2));
+        assertEquals(2, visited.size());
+    }
+
+    @Test
+    void rangeIteratorOnlyReturnsValuesInRect() {
+        PointSET set = new PointSET();
+
+        set.insert(new Point2D(1,1));
+        set.insert(new Point2D(2,2));
+        set.insert(new Point2D(3,3));
+        set.insert(new Point2D(4,4));
+
+        Iterator<Point2D> iterator = set.rangeIterator(new RectHV(1.5, 1.5, 3.5, 3.5));
+
+        assertEquals(new Point2D(2,2), iterator.next());
+        assertEquals(new Point2D(3,3), iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
     // nearest tests
 
     @Test
@@ -155,4 +209,164 @@ class PointSETTest {
 
         assertEquals(nearest, new Point2D(3,3));
     }
-}
\ No newline at end of file
+
+    @Test
+    void queriesSeeUpdatesMadeAfterAnEarlierQuery() {
+        PointSET set = new PointSET();
+        set.insert(new Point2D(0.5, 0.5));
+        assertEquals(new Point2D(0.5, 0.5), set.nearest(new Point2D(0.1, 0.1)));
+
+        set.insert(new Point2D(0.2, 0.2));
+        assertEquals(new Point2D(0.2, 0.2), set.nearest(new Point2D(0.1, 0.1)));
+
+        set.delete(new Point2D(0.2, 0.2));
+        assertEquals(new Point2D(0.5, 0.5), set.nearest(new Point2D(0.1, 0.1)));
+        assertFalse(set.rangeIterator(new RectHV(0, 0, 0.3, 0.3)).hasNext());
+    }
+
+    @Test
+    void queriesMatchAFullScan() {
+        Random random = new Random(11);
+        PointSET set = new PointSET();
+        List<Point2D> points = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            Point2D p = new Point2D(random.nextInt(100) / 100.0, random.nextDouble());
+            set.insert(p);
+            if (!points.contains(p)) points.add(p);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(random.nextDouble() * 1.2 - 0.1, random.nextDouble());
+            double closest = Double.POSITIVE_INFINITY;
+            for (Point2D p : points) closest = Math.min(closest, p.distanceSquaredTo(query));
+            assertEquals(closest, set.nearest(query).distanceSquaredTo(query));
+
+            RectHV rect = new RectHV(query.x() / 2, query.y() / 2, query.x() / 2 + 0.2, query.y());
+            int inside = 0;
+            for (Point2D p : points) if (rect.contains(p)) inside++;
+            int found = 0;
+            for (Point2D p : set.range(rect)) {
+                assertTrue(rect.contains(p));
+                found++;
+            }
+            assertEquals(inside, found);
+        }
+    }
+
+    @Test
+    void interleavedUpdatesAndQueriesMatchAFullScan() {
+        Random random = new Random(12);
+        PointSET set = new PointSET();
+        List<Point2D> points = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            Point2D p = new Point2D(random.nextInt(20) / 20.0, random.nextInt(20) / 20.0);
+            if (random.nextInt(3) == 0) {
+                set.delete(p);
+                points.remove(p);
+            } else {
+                set.insert(p);
+                if (!points.contains(p)) points.add(p);
+            }
+            assertEquals(points.size(), set.size());
+
+            Point2D query = new Point2D(random.nextDouble(), random.nextDouble());
+            double closest = Double.POSITIVE_INFINITY;
+            for (Point2D q : points) closest = Math.min(closest, q.distanceSquaredTo(query));
+            Point2D nearest = set.nearest(query);
+            assertEquals(closest, nearest == null ? Double.POSITIVE_INFINITY : nearest.distanceSquaredTo(query));
+
+            RectHV rect = new RectHV(query.x() / 2, query.y() / 2, query.x(), query.y());
+            int inside = 0;
+            for (Point2D q : points) if (rect.contains(q)) inside++;
+            int found = 0;
+            for (Point2D q : set.range(rect)) found++;
+            assertEquals(inside, found);
+        }
+    }
+
+    @Test
+    void rangeWithVisitorScansTheSetAsItWasWhenTheSearchStarted() {
+        PointSET set = new PointSET();
+        for (int i = 0; i < 10; i++) set.insert(new Point2D(i, i));
+
+        List<Point2D> visited = new ArrayList<>();
+        set.range(new RectHV(0, 0, 9, 9), p -> {
+            visited.add(p);
+            set.delete(p);
+            set.insert(new Point2D(p.x() + 0.5, p.y() + 0.5));
+            return set.nearest(p) != null;
+        });
+
+        assertEquals(10, visited.size());
+        for (int i = 0; i < 10; i++) assertEquals(new Point2D(i, i), visited.get(i));
+        assertEquals(10, set.size());
+    }
+
+    @Test
+    void insertingALargeFileOnePointAtATimeIsFast() throws IOException {
+        PointFile points = PointFile.read("testing-data/input200K.txt");
+        double[] xs = points.xs(), ys = points.ys();
+
+        // a merge per sqrt(n) updates keeps this well under a second; re-sorting or copying the arrays on every
+        // update takes about a minute
+        long start = System.nanoTime();
+        PointSET set = new PointSET();
+        for (int i = 0; i < points.size(); i++) {
+            set.insert(new Point2D(xs[i], ys[i]));
+            if (i % 1000 == 0) set.nearest(new Point2D(ys[i], xs[i]));
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(millis < 10_000, "inserting " + points.size() + " points took " + millis + " ms");
+        PointSET bulk = new PointSET(xs, ys);
+        assertEquals(bulk.size(), set.size());
+        RectHV rect = new RectHV(0.25, 0.25, 0.5, 0.5);
+        int found = 0;
+        for (Point2D p : set.range(rect)) found++;
+        int bulkFound = 0;
+        for (Point2D p : bulk.range(rect)) bulkFound++;
+        assertEquals(bulkFound, found);
+    }
+
+    @Test
+    void bulkConstructorOnlyAddsOneCopyOfIdenticalItems() {
+        assertThrows(IllegalArgumentException.class, () -> new PointSET(null, new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> new PointSET(new double[2], new double[3]));
+
+        PointSET set = new PointSET(new double[] { 0.3, 0.3, 0.3, 0.5 }, new double[] { 0.9, 0.9, 0.1, 0.9 });
+
+        assertEquals(3, set.size());
+        assertEquals(new Point2D(0.3, 0.1), set.nearest(new Point2D(0.3, 0)));
+        set.delete(new Point2D(0.3, 0.1));
+        assertEquals(new Point2D(0.3, 0.9), set.nearest(new Point2D(0.3, 0)));
+        assertFalse(set.rangeIterator(new RectHV(0, 0, 1, 0.5)).hasNext());
+    }
+
+    // k nearest tests
+
+    @Test
+    void kNearestThrowsIllegalArgumentExceptionWhenInputIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new PointSET().nearest(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PointSET().nearest(new Point2D(0, 0), -1));
+    }
+
+    @Test
+    void kNearestReturnsNothingIfSetEmpty() {
+        assertFalse(new PointSET().nearest(new Point2D(1,1), 2).iterator().hasNext());
+    }
+
+    @Test
+    void kNearestReturnsClosestPointsSortedByDistance() {
+        PointSET set = new PointSET();
+
+        set.insert(new Point2D(1,1));
+        set.insert(new Point2D(2,2));
+        set.insert(new Point2D(3,3));
+        set.insert(new Point2D(4,4));
+
+        Point2D[] expected = { new Point2D(3,3), new Point2D(2,2) };
+        int i = 0;
+        for (Point2D p : set.nearest(new Point2D(2.8,2.8), 2)) assertEquals(expected[i++], p);
+        assertEquals(2, i);
+    }
+}